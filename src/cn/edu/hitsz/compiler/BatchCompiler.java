@@ -0,0 +1,186 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.utils.FileUtils;
+import cn.edu.hitsz.compiler.opt.IRPass;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 批量编译的入口
+ * <br>
+ * 用法: {@code BatchCompiler [--threads N] [--out DIR] [--optimize] <文件 | 目录 | @文件列表>...}
+ * <ul>
+ *     <li>目录下的所有文件 (递归) 都会被编译, {@code @文件列表} 中每行是一个待编译的文件</li>
+ *     <li>默认每个文件一个虚拟线程, {@code --threads N} 改用 N 个线程的固定线程池</li>
+ *     <li>{@code --out DIR} 把每个文件的 IR 写到 DIR 下的 {@code 文件名.ir} 中. 目录中的文件保留其相对于该目录的路径,
+ *     因此不同子目录下的同名文件不会互相覆盖; 若仍有两个文件对应同一个输出文件, 则拒绝编译</li>
+ *     <li>{@code --optimize} 对 IR 执行 {@link IRPass#standard()} 的优化, 默认不优化</li>
+ * </ul>
+ * 所有文件共用一个 {@link CompilerPipeline}, 即码点文件, 文法与分析表只读取一次. 结束时输出总的吞吐量 (文件/秒, 词法单元/秒).
+ * 编译失败的文件会输出错误信息, 但不影响其它文件的编译.
+ */
+public final class BatchCompiler {
+    public static void main(String[] args) {
+        int threads = 0;
+        String outDir = null;
+        Supplier<IRPass> passes = IRPass::none;
+        final var inputs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--out" -> outDir = args[++i];
+                case "--optimize" -> passes = IRPass::standard;
+                default -> inputs.add(args[i]);
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: BatchCompiler [--threads N] [--out DIR] [--optimize] <file | dir | @list>...");
+            System.exit(2);
+        }
+
+        final var files = collectFiles(inputs);
+        final var pipeline = CompilerPipeline.load(passes);
+
+        final var start = System.nanoTime();
+        final var report = compileAll(pipeline, files, threads, outDir);
+        final var seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Compiled %d files (%d failed), %d tokens in %.1f ms: %.1f files/s, %.0f tokens/s%n",
+            report.files(), report.failed(), report.tokens(), seconds * 1e3,
+            report.files() / seconds, report.tokens() / seconds);
+        if (report.failed() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param path       源文件的路径
+     * @param outputName 在输出目录下的 IR 文件名 (可能含子目录)
+     */
+    record Source(String path, String outputName) {
+    }
+
+    /**
+     * @param files 编译的文件数 (含失败的)
+     * @param failed 编译失败的文件数
+     * @param tokens 编译成功的文件的词法单元总数
+     */
+    record Report(int files, int failed, long tokens) {
+    }
+
+    /**
+     * 并发编译所有文件
+     *
+     * @param pipeline 编译流程
+     * @param files    源文件
+     * @param threads  线程数, 为 0 时每个文件一个虚拟线程
+     * @param outDir   IR 的输出目录, 为 null 时不输出
+     * @return 编译的统计
+     */
+    static Report compileAll(CompilerPipeline pipeline, List<Source> files, int threads, String outDir) {
+        if (outDir != null) {
+            checkOutputNames(files);
+        }
+
+        final List<Future<CompilerPipeline.Result>> futures = new ArrayList<>(files.size());
+        try (final ExecutorService executor = threads == 0
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(threads)) {
+            for (final var file : files) {
+                futures.add(executor.submit(() -> {
+                    final var result = pipeline.compile(file.path());
+                    if (outDir != null) {
+                        final var target = Paths.get(outDir, file.outputName());
+                        Files.createDirectories(target.getParent());
+                        FileUtils.writeLines(target.toString(),
+                            result.instructions().stream().map(Instruction::toString).toList());
+                    }
+                    return result;
+                }));
+            }
+        }
+
+        int failed = 0;
+        long tokens = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                tokens += futures.get(i).get().tokenCount();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(files.get(i).path() + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while compiling", e);
+            }
+        }
+        return new Report(files.size(), failed, tokens);
+    }
+
+    /**
+     * 确保没有两个源文件写到同一个输出文件, 否则后写的会悄悄覆盖先写的
+     *
+     * @param files 源文件
+     */
+    private static void checkOutputNames(List<Source> files) {
+        final var owners = new HashMap<Path, String>();
+        for (final var file : files) {
+            final var name = Paths.get(file.outputName()).normalize();
+            final var previous = owners.putIfAbsent(name, file.path());
+            if (previous != null) {
+                throw new RuntimeException("Output %s is shared by %s and %s".formatted(name, previous, file.path()));
+            }
+        }
+    }
+
+    /**
+     * 展开命令行中的输入, 单独给出的文件以文件名作为输出名, 目录中的文件以相对于该目录的路径作为输出名
+     *
+     * @param inputs 命令行中的文件, 目录与文件列表
+     * @return 所有源文件
+     */
+    private static List<Source> collectFiles(List<String> inputs) {
+        final var files = new ArrayList<Source>();
+        for (final var input : inputs) {
+            if (input.startsWith("@")) {
+                FileUtils.readLines(input.substring(1)).stream()
+                    .map(String::strip)
+                    .filter(line -> !line.isEmpty())
+                    .map(BatchCompiler::single)
+                    .forEach(files::add);
+            } else if (Files.isDirectory(Paths.get(input))) {
+                final var root = Paths.get(input);
+                try (final Stream<Path> walk = Files.walk(root)) {
+                    walk.filter(Files::isRegularFile)
+                        .sorted()
+                        .map(path -> new Source(path.toString(), root.relativize(path) + ".ir"))
+                        .forEach(files::add);
+                } catch (IOException e) {
+                    throw new RuntimeException("IO Exception on " + input, e);
+                }
+            } else {
+                files.add(single(input));
+            }
+        }
+        return files;
+    }
+
+    private static Source single(String path) {
+        return new Source(path, Paths.get(path).getFileName() + ".ir");
+    }
+
+    private BatchCompiler() {
+    }
+}
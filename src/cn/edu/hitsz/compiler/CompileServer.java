@@ -0,0 +1,192 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.opt.IRPass;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 常驻的编译服务
+ * <br>
+ * 码点文件, 文法与 LR 分析表只在启动时读取一次 (见 {@link CompilerPipeline}), 之后的每个请求都在已经预热的 JVM 中编译.
+ * 用法: {@code CompileServer [--optimize] [--socket PATH]}, 不指定 socket 时从标准输入读取请求, 向标准输出回复;
+ * 指定时监听该路径上的 Unix 域套接字, 每个连接一个虚拟线程, 协议相同. 指定 {@code --optimize} 时对 IR 执行
+ * {@link IRPass#standard()} 的优化, 默认不优化.
+ * <br>
+ * 协议按行进行, 每行一个请求:
+ * <ul>
+ *     <li>{@code ir PATH}: 编译 PATH, 回复 IR</li>
+ *     <li>{@code asm PATH}: 编译 PATH, 回复汇编代码</li>
+ *     <li>{@code run PATH}: 编译 PATH 并模拟执行 IR, 回复返回值</li>
+ *     <li>{@code stats}: 回复编译请求的延迟分位数</li>
+ *     <li>{@code quit}: 结束当前会话</li>
+ * </ul>
+ * 成功时回复 {@code ok N} 及其后的 N 行内容, 失败时 (包括源文件中有词法错误) 回复一行 {@code error 原因}.
+ */
+public final class CompileServer {
+    public static void main(String[] args) throws IOException {
+        final var optimize = args.length > 0 && args[0].equals("--optimize");
+        if (optimize) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        final var server = new CompileServer(CompilerPipeline.load(optimize ? IRPass::standard : IRPass::none));
+
+        if (args.length == 2 && args[0].equals("--socket")) {
+            server.listen(args[1]);
+        } else if (args.length == 0) {
+            // 标准输出只用来回复, 其它输出一律转到标准错误, 以免破坏回复的格式
+            final var replies = new PrintWriter(System.out, false, StandardCharsets.UTF_8);
+            System.setOut(System.err);
+            server.serve(new InputStreamReader(System.in, StandardCharsets.UTF_8), replies);
+            System.err.println(String.join("\n", server.latencies.report()));
+        } else {
+            System.err.println("Usage: CompileServer [--optimize] [--socket PATH]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @param pipeline 编译流程
+     */
+    public CompileServer(CompilerPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * 处理一个会话, 直到读到 quit 或输入结束
+     *
+     * @param input  请求
+     * @param output 回复
+     */
+    public void serve(Reader input, Writer output) throws IOException {
+        final var reader = new BufferedReader(input);
+        final var writer = output instanceof PrintWriter printWriter ? printWriter : new PrintWriter(output);
+
+        String line;
+        while ((line = reader.readLine()) != null && !line.strip().equals("quit")) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                final var reply = handle(line.strip());
+                writer.println("ok " + reply.size());
+                reply.forEach(writer::println);
+            } catch (RuntimeException e) {
+                // 回复必须是一行, 错误信息中的换行替换为空格
+                writer.println("error " + Objects.toString(e.getMessage(), e.toString()).replace('\n', ' '));
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * 在 Unix 域套接字上监听, 每个连接一个虚拟线程
+     *
+     * @param path 套接字路径, 已存在的文件会被删除
+     */
+    public void listen(String path) throws IOException {
+        final var address = UnixDomainSocketAddress.of(path);
+        Files.deleteIfExists(Paths.get(path));
+
+        try (final var serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            serverChannel.bind(address);
+            while (true) {
+                final var channel = serverChannel.accept();
+                Thread.ofVirtual().start(() -> serveConnection(channel));
+            }
+        }
+    }
+
+    private void serveConnection(SocketChannel channel) {
+        try (channel) {
+            serve(Channels.newReader(channel, StandardCharsets.UTF_8),
+                new PrintWriter(Channels.newWriter(channel, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            System.err.println("Connection closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param request 一行请求
+     * @return 回复的内容
+     */
+    List<String> handle(String request) {
+        final var words = request.split("\\s+", 2);
+        if (words[0].equals("stats")) {
+            return latencies.report();
+        }
+        if (words.length != 2) {
+            throw new RuntimeException("Unknown request: " + request);
+        }
+
+        final var start = System.nanoTime();
+        final var result = pipeline.compile(words[1]);
+        final var reply = switch (words[0]) {
+            case "ir" -> result.instructions().stream().map(Instruction::toString).toList();
+            case "asm" -> result.assembly();
+            case "run" -> List.of(result.emulate().map(Objects::toString).orElse("No return value"));
+            default -> throw new RuntimeException("Unknown request: " + request);
+        };
+        latencies.record(System.nanoTime() - start);
+        return reply;
+    }
+
+    /**
+     * 编译请求的延迟记录, 可以被多个连接同时访问
+     */
+    static final class Latencies {
+        synchronized void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, samples.length * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        /**
+         * @return 请求数与 p50, p90, p99, 最大延迟 (毫秒)
+         */
+        synchronized List<String> report() {
+            if (count == 0) {
+                return List.of("requests 0");
+            }
+
+            final var sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return List.of(
+                "requests " + count,
+                "p50 %.3f ms".formatted(percentile(sorted, 50)),
+                "p90 %.3f ms".formatted(percentile(sorted, 90)),
+                "p99 %.3f ms".formatted(percentile(sorted, 99)),
+                "max %.3f ms".formatted(sorted[count - 1] / 1e6));
+        }
+
+        private static double percentile(long[] sorted, int percent) {
+            // 最近秩法
+            final var rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        private long[] samples = new long[1024];
+        private int count = 0;
+    }
+
+    private final CompilerPipeline pipeline;
+    private final Latencies latencies = new Latencies();
+}
@@ -0,0 +1,139 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.asm.AssemblyGenerator;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.lexer.LexTable;
+import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
+import cn.edu.hitsz.compiler.lexer.TokenBuffer;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.opt.IRPass;
+import cn.edu.hitsz.compiler.parser.IRGenerator;
+import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
+import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.LRTableFile;
+import cn.edu.hitsz.compiler.parser.table.TableLoader;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+import cn.edu.hitsz.compiler.utils.IREmulator;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * 一次加载, 多次编译的编译流程
+ * <br>
+ * 与 Main 相同的词法分析, 语法分析, 语义分析与 IR 生成, 但码点文件, 文法与 LR 分析表只在构造时读取一次.
+ * 这些共享的部分构造后都不再改变, 每次编译所用的符号表, 分析器, 观察者与优化则都是新建的, 因此同一个对象可以在多个线程上同时编译不同的文件.
+ * <br>
+ * 与 Main 不同, 这里不输出 token 列表, 符号表与规约列表等中间结果, 只返回编译得到的 IR. 与 Main 相同, 默认不优化 IR,
+ * 需要时在构造时传入构造所用优化的函数.
+ */
+public final class CompilerPipeline {
+    /**
+     * 读取码点文件, 文法与 LR 分析表. 分析表的读取方式与 Main 相同, 优先使用二进制分析表, 但不会写出它
+     *
+     * @return 不优化 IR 的编译流程
+     */
+    public static CompilerPipeline load() {
+        return load(IRPass::none);
+    }
+
+    /**
+     * 同 {@link #load()}, 但对生成的 IR 执行给定的优化
+     *
+     * @param passes 构造对 IR 的优化的函数, 每次编译调用一次
+     * @return 编译流程
+     */
+    public static CompilerPipeline load(Supplier<IRPass> passes) {
+        if (TokenKind.allAllowedTokenKinds().isEmpty()) {
+            TokenKind.loadTokenKinds();
+        }
+
+        final var lrTable = LRTableFile.tryLoad(FilePathConfig.LR1_TABLE_BINARY_PATH)
+            .orElseGet(() -> new TableLoader().load(FilePathConfig.LR1_TABLE_PATH));
+        return new CompilerPipeline(LexTable.load(FilePathConfig.CODING_MAP_PATH), lrTable, passes);
+    }
+
+    /**
+     * @param lexTable 词法分析的转移表
+     * @param lrTable  LR 分析表
+     * @param passes   构造对 IR 的优化的函数, 每次编译调用一次; 不优化时为 {@code IRPass::none}
+     */
+    public CompilerPipeline(LexTable lexTable, LRTable lrTable, Supplier<IRPass> passes) {
+        this.lexTable = lexTable;
+        this.lrTable = lrTable;
+        this.passes = passes;
+
+        // 在开始编译前读入文法并编译分析表, 之后各线程只读取它们
+        GrammarInfo.getProductionsInOrder();
+        lrTable.compile();
+    }
+
+    /**
+     * 编译一个源文件
+     *
+     * @param path 源文件路径
+     * @return 编译结果
+     */
+    public Result compile(String path) {
+        final var symbolTable = new SymbolTable();
+
+        final var lexer = new LexicalAnalyzer(symbolTable, lexTable);
+        lexer.loadFile(path);
+        lexer.run();
+        final var errors = lexer.getErrors();
+        if (!errors.isEmpty()) {
+            // 只报告第一个错误, 以免错误很多时回复过长
+            throw new RuntimeException("Lexical error in %s: %s (%d errors in total)".formatted(path, errors.get(0), errors.size()));
+        }
+        final var tokens = lexer.getTokens();
+
+        final var parser = new SyntaxAnalyzer(symbolTable);
+        parser.loadTokens(tokens);
+        parser.loadLRTable(lrTable);
+
+        final var semanticAnalyzer = new SemanticAnalyzer();
+        parser.registerObserver(semanticAnalyzer);
+        final var irGenerator = new IRGenerator();
+        parser.registerObserver(irGenerator);
+
+        parser.run();
+
+        final var tokenCount = tokens instanceof TokenBuffer buffer ? buffer.size() : 0;
+        return new Result(path, tokenCount, symbolTable, passes.get().run(irGenerator.getIR()));
+    }
+
+    /**
+     * 一个源文件的编译结果
+     *
+     * @param path         源文件路径
+     * @param tokenCount   词法单元的个数 (含结束符)
+     * @param symbolTable  语义分析后的符号表
+     * @param instructions 生成的 IR, 若编译流程带有优化则是优化后的 IR
+     */
+    public record Result(String path, int tokenCount, SymbolTable symbolTable, List<Instruction> instructions) {
+        /**
+         * @return 模拟执行 IR 的返回值; 没有返回值时为空
+         */
+        public Optional<Integer> emulate() {
+            return IREmulator.load(instructions).execute();
+        }
+
+        /**
+         * @return 由 IR 生成的汇编代码, 每个元素一行
+         */
+        public List<String> assembly() {
+            final var asmGenerator = new AssemblyGenerator();
+            asmGenerator.loadIR(instructions);
+            asmGenerator.run();
+            return asmGenerator.getAssembly();
+        }
+    }
+
+    private final LexTable lexTable;
+    private final LRTable lrTable;
+    private final Supplier<IRPass> passes;
+}
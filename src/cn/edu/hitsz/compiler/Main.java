@@ -1,13 +1,17 @@
 package cn.edu.hitsz.compiler;
 
 import cn.edu.hitsz.compiler.asm.AssemblyGenerator;
+import cn.edu.hitsz.compiler.ir.Instruction;
 import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.opt.IRPass;
 import cn.edu.hitsz.compiler.parser.IRGenerator;
 import cn.edu.hitsz.compiler.parser.ProductionCollector;
 import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
 import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
 import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.LRTableFile;
 import cn.edu.hitsz.compiler.parser.table.TableGenerator;
 import cn.edu.hitsz.compiler.parser.table.TableLoader;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
@@ -18,7 +22,12 @@ import cn.edu.hitsz.compiler.utils.IREmulator;
 import java.util.Objects;
 
 public class Main {
+    /**
+     * @param args 传入 {@code --optimize} 时对 IR 进行优化后再输出与生成汇编, 否则输出的是未经优化的 IR, 与 data/std 中的参考结果一致
+     */
     public static void main(String[] args) {
+        final var optimize = args.length > 0 && args[0].equals("--optimize");
+
         // 构建符号表以供各部分使用
         TokenKind.loadTokenKinds();
         final var symbolTable = new SymbolTable();
@@ -26,17 +35,31 @@ public class Main {
         // 词法分析
         final var lexer = new LexicalAnalyzer(symbolTable);
         lexer.loadFile(FilePathConfig.SRC_CODE_PATH);
+        // // 纯 ASCII 的源文件也可以直接映射进内存按字节扫描
+//        lexer.loadMappedFile(FilePathConfig.SRC_CODE_PATH);
         lexer.run();
+        lexer.getErrors().forEach(System.err::println);
         lexer.dumpTokens(FilePathConfig.TOKEN_PATH);
         final var tokens = lexer.getTokens();
         symbolTable.dumpTable(FilePathConfig.OLD_SYMBOL_TABLE);
 
-        // 读取第三方程序构造的 LR 分析表
+        // // 或不调用 run, 直接把惰性的 token 流交给语法分析器, 内存占用只取决于输入窗口大小而与文件大小无关
+        // // (此时符号表在语法分析过程中才被填满, 也就不能在这里输出 token 列表与旧符号表了)
+//         lexer.loadFile(FilePathConfig.SRC_CODE_PATH);
+//         final var tokens = lexer.getTokens();
+
+        // 读取第三方程序构造的 LR 分析表. 若已用 LRTableFile 的 main 把 CSV 转换为二进制分析表, 则优先使用它;
+        // 二进制分析表不存在或已过时 (文法, 码点文件或 CSV 改动过) 时读取 CSV
         final var tableLoader = new TableLoader();
-        final var lrTable = tableLoader.load(FilePathConfig.LR1_TABLE_PATH);
+        final var lrTable = LRTableFile.tryLoad(FilePathConfig.LR1_TABLE_BINARY_PATH)
+            .orElseGet(() -> tableLoader.load(FilePathConfig.LR1_TABLE_PATH));
+        // // 状态与符号较多的大表可以压缩存储, 并比较压缩前后的大小
+//        final var lrTable = tableLoader.load(FilePathConfig.LR1_TABLE_PATH, LRTable.Layout.COMPRESSED);
+//        System.out.println(lrTable.compile().footprintReport());
 
         // // 或使用框架自带部分直接从 grammar.txt 构造 LR 分析表
 //         final var tableGenerator = new TableGenerator();
+//         tableGenerator.setPool(ForkJoinPool.commonPool()); // 大文法可以并行构造 LR(0) 自动机
 //         tableGenerator.run();
 //         final var lrTable = tableGenerator.getTable();
 //         lrTable.dumpTable("data/out/lrTable.csv");
@@ -57,15 +80,33 @@ public class Main {
         // 加入用作 IR 生成的 Observer
         final var irGenerator = new IRGenerator();
         parser.registerObserver(irGenerator);
+        // // 或在生成 IR 的同时做值编号, 重复的子表达式只计算一次, 替换上面的两行
+//        final var valueNumbering = new ValueNumbering();
+//        final var irGenerator = new IRGenerator(new IRContext(), valueNumbering);
+//        parser.registerObserver(irGenerator);
+        // // 或让三个 Observer 各在一个线程上与语法分析并行执行 (需先完成词法分析), 替换上面的三次注册
+//        parser.registerObserver(new ObserverPipeline(productionCollector, semanticAnalyzer, irGenerator));
+
+        // // 记录语法分析的事件日志, 之后只改动了语义分析或 IR 生成时可以直接重放日志
+//        final var recorder = new ParseLogRecorder();
+//        parser.registerObserver(recorder);
 
         // 执行语法解析并在解析过程中依次调用各 Observer
         parser.run();
+//        recorder.write(FilePathConfig.PARSE_LOG_PATH);
+
+        // // 或不调用 parser.run(), 从上次的日志重放 (此时符号表由日志中的标识符重建, 可以不进行词法分析)
+//        ParseLogReplayer.tryLoad(FilePathConfig.PARSE_LOG_PATH).orElseThrow()
+//            .replay(lrTable, symbolTable, productionCollector, semanticAnalyzer, irGenerator);
 
         // 各 Observer 输出结果
         productionCollector.dumpToFile(FilePathConfig.PARSER_PATH);
         symbolTable.dumpTable(FilePathConfig.NEW_SYMBOL_TABLE);
-        final var instructions = irGenerator.getIR();
-        irGenerator.dumpIR(FilePathConfig.INTERMEDIATE_CODE_PATH);
+
+        // 开启优化时, 之后输出, 模拟执行与生成汇编的都是优化后的 IR
+        final var instructions = optimize ? IRPass.standard().run(irGenerator.getIR()) : irGenerator.getIR();
+//        System.out.println("Value numbering eliminated " + valueNumbering.getEliminatedCount() + " instructions");
+        FileUtils.writeLines(FilePathConfig.INTERMEDIATE_CODE_PATH, instructions.stream().map(Instruction::toString).toList());
 //
 //        // 模拟执行 IR 并输出结果
         final var emulator = IREmulator.load(instructions);
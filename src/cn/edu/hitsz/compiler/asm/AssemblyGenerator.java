@@ -1,7 +1,9 @@
 package cn.edu.hitsz.compiler.asm;
 
 
+import cn.edu.hitsz.compiler.ir.IRImmediate;
 import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
 import cn.edu.hitsz.compiler.ir.InstructionKind;
 
@@ -25,15 +27,54 @@ import java.util.*;
  * @see AssemblyGenerator#run() 代码生成与寄存器分配
  */
 public class AssemblyGenerator {
-    private final List<String> usedRegisters = new ArrayList<>();  // 用于追踪已经使用的寄存器？ 我们需要这个吗
     private final List<String> freeRegisters = new ArrayList<>();  // 用于追踪空闲寄存器
     private final List<String> assemblyInstructions = new ArrayList<>();
 
-    private final Map<String, String> registerMap = new HashMap<>();
+    private final Map<IRVariable, String> registerMap = new HashMap<>();
     private List<Instruction> instructions;
+    // occurrences[i]: 第 i 条指令中出现的变量, 及其下一次出现的位置
+    private List<List<Occurrence>> occurrences;
+
+    //==================== 寄存器分配的状态 ==============================//
+    // 在寄存器中的变量下一次出现的位置, 溢出时选择最远的那个
+    private final Map<IRVariable, Occurrence> nextUse = new HashMap<>();
+    // 寄存器中的值比栈上的新, 溢出时需要写回的变量
+    private final Set<IRVariable> dirty = new HashSet<>();
+    // 值为立即数的变量, 溢出时不必写回, 重新 li 即可
+    private final Map<IRVariable, Integer> constants = new HashMap<>();
+    // 变量在栈上的槽位; 变量不再活跃后槽位留给其他变量
+    private final Map<IRVariable, Integer> stackSlots = new HashMap<>();
+    private final List<Integer> freeSlots = new ArrayList<>();
+    private int slotCount = 0;
+    // 用到的 callee-saved 寄存器, 需要在入口保存, 返回前恢复
+    private final Set<String> usedCalleeSaved = new TreeSet<>();
+    // 当前指令的操作数与结果所在的寄存器, 生成该指令时不能被溢出
+    private final Set<String> lockedRegisters = new HashSet<>();
+    // 各条写入 a0 的指令之后的位置, 在此插入恢复栈帧的代码
+    private final List<Integer> returnPositions = new ArrayList<>();
 
+    /**
+     * 变量在某条指令中的一次出现
+     *
+     * @param variable  变量
+     * @param next      下一次出现的指令的下标, 不再出现时为 {@link #NEVER}
+     * @param nextReads 下一次出现时是否读取该变量; 只作为结果出现时, 当前的值溢出时不必写回
+     */
+    private record Occurrence(IRVariable variable, int next, boolean nextReads) {
+    }
+
+    private static final int NEVER = Integer.MAX_VALUE;
 
+    // 偏移量超出 12 位立即数范围的栈槽经此寄存器寻址, 不参与分配, 溢出时也总能使用
+    private static final String FAR_SLOT_BASE = "s0";
+    // 开辟与回收大栈帧时装入帧大小的寄存器, 入口处与返回值写入 a0 之后它都不持有活跃的值
+    private static final String FRAME_SCRATCH = "t0";
+
+    // 按优先级从低到高排列, 分配时从末尾取出: 先用 t 寄存器, 再用不涉及调用的 a 寄存器,
+    // 最后才用需要保存与恢复的 s 寄存器. a0 留作返回值, s0 留作访问远处栈槽的基址
     private static final String[] REGISTER_POOL = {
+            "s11", "s10", "s9", "s8", "s7", "s6", "s5", "s4", "s3", "s2", "s1",
+            "a7", "a6", "a5", "a4", "a3", "a2", "a1",
             "t0", "t1", "t2", "t3", "t4", "t5", "t6"
     };
 
@@ -51,9 +92,23 @@ public class AssemblyGenerator {
      * @param originInstructions 前端提供的中间代码
      */
     public void loadIR(List<Instruction> originInstructions) {
-        // TODO: 读入前端提供的中间代码并生成所需要的信息
-//        throw new NotImplementedException();
         instructions = originInstructions;
+
+        // 自后向前扫描一遍, 得到每个变量每次出现后的下一次出现. 不再出现的变量在该指令后即可释放寄存器与栈槽.
+        // 作为结果被重新赋值也算一次出现, 这样变量在两次赋值之间不会丢失寄存器
+        occurrences = new ArrayList<>(Collections.nCopies(instructions.size(), List.of()));
+        // 各变量在已扫描过的部分中最早的一次出现, 即当前指令之后的下一次出现
+        final var upcoming = new HashMap<IRVariable, Occurrence>();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            final var instruction = instructions.get(i);
+            final var variables = variablesOf(instruction);
+            final var current = new ArrayList<Occurrence>(variables.size());
+            for (final var variable : variables) {
+                current.add(upcoming.getOrDefault(variable, new Occurrence(variable, NEVER, false)));
+                upcoming.put(variable, new Occurrence(variable, i, instruction.getOperands().contains(variable)));
+            }
+            occurrences.set(i, current);
+        }
     }
 
 
@@ -65,109 +120,256 @@ public class AssemblyGenerator {
      * <br>
      * 提示: 寄存器分配中需要的信息较多, 关于全局的与代码生成过程无关的信息建议在代码生
      * 成前完成建立, 与代码生成的过程相关的信息可自行设计数据结构进行记录并动态维护.
+     * <br>
+     * 寄存器不足时溢出下一次使用最远的变量 (Belady): 只有寄存器中的值比栈上新, 且之后还会读取时才用 sw 写回,
+     * 值为立即数的变量重新 li 而不经过内存. 用到栈或 callee-saved 寄存器时, 最后补上开辟栈帧与返回前恢复的代码.
      */
     public void run() {
-        // TODO: 执行寄存器分配与代码生成
-//        throw new NotImplementedException();
-        // 依次处理每一条指令
-        for (Instruction instruction : instructions) {
-            generateAssembly(instruction);
-            releaseUnusedRegisters(instruction);
+        // 依次处理每一条指令, 生成后更新其中变量的下一次出现, 并释放不再出现的变量所占的寄存器
+        for (int i = 0; i < instructions.size(); i++) {
+            generateAssembly(instructions.get(i));
+            lockedRegisters.clear();
+            updateOccurrences(i);
         }
+        emitFrame();
     }
 
     /**
      * 生成汇编代码
+     * <br>
+     * 立即数不先装进寄存器, 而是按模式选择指令: 能放进 12 位立即数的加减用 addi, 更大的常数用 lui + addi 构造,
+     * 0 直接用 x0; 乘以常数时在 li + mul 与移位, 加减组成的序列中按 {@link #COSTS} 选代价最小的.
      */
     public void generateAssembly(Instruction instruction) {
-        InstructionKind kind = instruction.getKind();
-        String target = null;
-        String src1 = null;
-        String src2 = null;
-        boolean lhsImmediate = false;
-        boolean rhsImmediate = false;
-
-        // 根据指令的种类来决定如何获取操作数, 取数的get跟指令的种类有关， InstructionKind有提供方法判断操作数是几个。
-        if (kind.isBinary()) {
-            // 对于二元操作，获取 LHS 和 RHS
-            src1 = getOperand(instruction.getLHS());
-            src2 = getOperand(instruction.getRHS());
-            target = getOperand(instruction.getResult());
-            lhsImmediate = instruction.getLHS().isImmediate();
-            rhsImmediate = instruction.getRHS().isImmediate();
-        } else if (kind.isUnary()) {
-            // 对于 MOV 指令，只获取从操作数
-            src2 = getOperand(instruction.getFrom());
-            target = getOperand(instruction.getResult());
-            rhsImmediate = instruction.getFrom().isImmediate();
-        } else if (kind.isReturn()) {
-            // 对于 RET 指令，直接获取返回值
-            src1 = getOperand(instruction.getReturnValue());
-        }
-
-        // 如果是 ADD 指令且 lhs 是立即数，交换 src1 和 src2
-        if (kind == InstructionKind.ADD && lhsImmediate) {
-            String tempSrc = src1;
-            src1 = src2;
-            src2 = tempSrc;
-
-            boolean tempImmediate = lhsImmediate;
-            lhsImmediate = rhsImmediate;
-            rhsImmediate = tempImmediate;
-        }
-
+        final var kind = instruction.getKind();
         switch (kind) {
-            case ADD:
-                if (rhsImmediate) {
-                    assemblyInstructions.add("addi " + target + ", " + src1 + ", " + src2);
-                } else {
-                    assemblyInstructions.add("add " + target + ", " + src1 + ", " + src2);
+            case ADD, SUB, MUL -> {
+                var lhs = instruction.getLHS();
+                var rhs = instruction.getRHS();
+                // 可交换的运算把立即数换到右边
+                if (kind != InstructionKind.SUB && lhs.isImmediate()) {
+                    final var swap = lhs;
+                    lhs = rhs;
+                    rhs = swap;
                 }
-                break;
-
-            case SUB:
-                if (rhsImmediate) {
-                    // 使用 addi 指令，并将立即数取负
-                    assemblyInstructions.add("addi " + target + ", " + src1 + ", -" + src2);
-                } else if (lhsImmediate) {
-                    // 如果 src1 是立即数，用 li 加载立即数到寄存器，再用 sub
-                    // 此时，target已经取了寄存器，其实不必申请临时寄存器，而是直接把立即数加载到target中，
-                    // 然后用target减去减数，存target，一样完成减法，不需要临时寄存器。
-//                    String tempReg = allocateRegister();
-                    assemblyInstructions.add("li " + target + ", " + src1);
-                    assemblyInstructions.add("sub " + target + ", " + target + ", " + src2);
-//                    freeRegister(tempReg);  // 释放临时寄存器
+
+                if (lhs instanceof IRImmediate l && rhs instanceof IRImmediate r) {
+                    // 未经常量折叠的 IR 中两个参数都可能是立即数, 直接算出结果
+                    final var value = switch (kind) {
+                        case ADD -> l.getValue() + r.getValue();
+                        case SUB -> l.getValue() - r.getValue();
+                        default -> l.getValue() * r.getValue();
+                    };
+                    materialize(getTarget(instruction.getResult()), value);
+                } else if (lhs instanceof IRImmediate l) {
+                    // 只有 SUB 的左边会是立即数
+                    final var src = getOperand(rhs);
+                    subtractFromImmediate(getTarget(instruction.getResult()), l.getValue(), src);
+                } else if (rhs instanceof IRImmediate r) {
+                    final var src = getOperand(lhs);
+                    final var target = getTarget(instruction.getResult());
+                    switch (kind) {
+                        case ADD -> addImmediate(target, src, r.getValue());
+                        // 取负按 32 位回绕, 对 Integer.MIN_VALUE 也成立
+                        case SUB -> addImmediate(target, src, -r.getValue());
+                        default -> multiplyImmediate(target, src, r.getValue());
+                    }
                 } else {
-                    assemblyInstructions.add("sub " + target + ", " + src1 + ", " + src2);
+                    final var src1 = getOperand(lhs);
+                    final var src2 = getOperand(rhs);
+                    final var target = getTarget(instruction.getResult());
+                    final var mnemonic = kind.toString().toLowerCase();
+                    emit(mnemonic + " " + target + ", " + src1 + ", " + src2);
                 }
-                break;
-
-            case MUL:
-                if (rhsImmediate) {
-//                    String tempReg = allocateRegister();
-                    assemblyInstructions.add("li " + target + ", " + src2);
-                    assemblyInstructions.add("mul " + target + ", " + src1 + ", " + target);
-//                    freeRegister(tempReg);  // 释放临时寄存器
+            }
+
+            case MOV -> {
+                if (instruction.getFrom() instanceof IRImmediate immediate) {
+                    // 记下常数, 溢出后可以重新构造而不必写回
+                    final var target = getTarget(instruction.getResult());
+                    materialize(target, immediate.getValue());
+                    constants.put(instruction.getResult(), immediate.getValue());
                 } else {
-                    assemblyInstructions.add("mul " + target + ", " + src1 + ", " + src2);
+                    final var src = getOperand(instruction.getFrom());
+                    emit("mv " + getTarget(instruction.getResult()) + ", " + src);
                 }
-                break;
+            }
 
-            case MOV:
-                if (rhsImmediate) {
-                    // 如果是立即数，则使用 li 指令
-                    assemblyInstructions.add("li " + target + ", " + src2);
+            case RET -> {
+                if (instruction.getReturnValue() instanceof IRImmediate immediate) {
+                    // 返回值在编译期已知时直接装入 a0
+                    materialize("a0", immediate.getValue());
                 } else {
-                    assemblyInstructions.add("mv " + target + ", " + src2);
+                    emit("mv a0, " + getOperand(instruction.getReturnValue()));
                 }
-                break;
+                returnPositions.add(assemblyInstructions.size());
+            }
+
+            default -> throw new RuntimeException("Unknown instruction kind: " + kind);
+        }
+    }
 
-            case RET:
+    //==================== 立即数与指令选择 ==============================//
+    // 各条指令的代价, 大致为在顺序执行的 RV32IM 核上的周期数, 用于在等价的指令序列之间选择
+    private static final Map<String, Integer> COSTS = Map.of(
+        "li", 1, "lui", 1, "addi", 1, "mv", 1, "add", 1, "sub", 1, "slli", 1, "mul", 4
+    );
 
-                assemblyInstructions.add("mv a0, " + src1);
-                break;
+    private static int cost(String... mnemonics) {
+        int total = 0;
+        for (final var mnemonic : mnemonics) {
+            total += COSTS.get(mnemonic);
         }
+        return total;
     }
+
+    private static boolean fitsImmediate(long value) {
+        return value >= -2048 && value < 2048;
+    }
+
+    private static int materializeCost(int value) {
+        // lui 装入高 20 位, addi 补上符号扩展后的低 12 位; 低 12 位为 0 时只需 lui
+        return fitsImmediate(value) ? cost("li") : (value & 0xFFF) == 0 ? cost("lui") : cost("lui", "addi");
+    }
+
+    /**
+     * 把常数装入寄存器
+     */
+    private void materialize(String reg, int value) {
+        if (value == 0) {
+            emit("mv " + reg + ", x0");
+        } else if (fitsImmediate(value)) {
+            emit("li " + reg + ", " + value);
+        } else {
+            // addi 的立即数是符号扩展的, 低 12 位的最高位为 1 时高 20 位要多加 1
+            final var upper = ((value + 0x800) >>> 12) & 0xFFFFF;
+            final var lower = value - (upper << 12);
+            emit("lui " + reg + ", " + upper);
+            if (lower != 0) {
+                emit("addi " + reg + ", " + reg + ", " + lower);
+            }
+        }
+    }
+
+    /**
+     * target = src + value
+     */
+    private void addImmediate(String target, String src, int value) {
+        if (value == 0) {
+            if (!target.equals(src)) {
+                emit("mv " + target + ", " + src);
+            }
+        } else if (fitsImmediate(value)) {
+            emit("addi " + target + ", " + src + ", " + value);
+        } else {
+            final var tempReg = target.equals(src) ? allocateScratchRegister() : target;
+            materialize(tempReg, value);
+            emit("add " + target + ", " + src + ", " + tempReg);
+            releaseScratch(tempReg, target);
+        }
+    }
+
+    /**
+     * target = value - src
+     */
+    private void subtractFromImmediate(String target, int value, String src) {
+        if (value == 0) {
+            emit("sub " + target + ", x0, " + src);
+        } else if (!target.equals(src)) {
+            // 先把立即数加载到 target 中, 再用 target 减去减数
+            materialize(target, value);
+            emit("sub " + target + ", " + target + ", " + src);
+        } else {
+            // target 与减数是同一个变量 (如 x = 3 - x) 时, 先取负再加上立即数, 不会覆盖减数
+            emit("sub " + target + ", x0, " + src);
+            addImmediate(target, target, value);
+        }
+    }
+
+    /**
+     * target = src * value, 在可行的指令序列中选代价最小的
+     */
+    private void multiplyImmediate(String target, String src, int value) {
+        // 通用做法: 把常数装入寄存器后用 mul
+        int bestCost = materializeCost(value) + cost("mul");
+        Runnable best = () -> {
+            final var tempReg = target.equals(src) ? allocateScratchRegister() : target;
+            materialize(tempReg, value);
+            emit("mul " + target + ", " + src + ", " + tempReg);
+            releaseScratch(tempReg, target);
+        };
+
+        // 常数的绝对值为 2^k 或 (2^j ± 1) * 2^k 时用移位与加减代替乘法, 负数最后再取一次负
+        final var negate = value < 0;
+        final var magnitude = Math.abs((long) value);
+        final var negateCost = negate ? cost("sub") : 0;
+        final var shift = Long.numberOfTrailingZeros(magnitude);
+        final var odd = magnitude >>> shift;
+
+        if (value == 0) {
+            bestCost = cost("mv");
+            best = () -> emit("mv " + target + ", x0");
+        } else if (odd == 1) {
+            final var shiftCost = shift > 0 ? cost("slli") + negateCost
+                : negate ? cost("sub") : target.equals(src) ? 0 : cost("mv");
+            if (shiftCost < bestCost) {
+                bestCost = shiftCost;
+                best = () -> {
+                    if (shift == 0 && negate) {
+                        emit("sub " + target + ", x0, " + src);
+                    } else if (shift == 0) {
+                        addImmediate(target, src, 0);
+                    } else {
+                        emit("slli " + target + ", " + src + ", " + shift);
+                        if (negate) {
+                            emit("sub " + target + ", x0, " + target);
+                        }
+                    }
+                };
+            }
+        } else if (Long.bitCount(odd - 1) == 1 || Long.bitCount(odd + 1) == 1) {
+            // odd = 2^j + 1 或 2^j - 1: target = ((src << j) ± src) << k
+            final var combine = Long.bitCount(odd - 1) == 1 ? "add" : "sub";
+            final var j = Long.numberOfTrailingZeros(combine.equals("add") ? odd - 1 : odd + 1);
+            final var pairCost = cost("slli", combine) + (shift > 0 ? cost("slli") : 0) + negateCost;
+            if (pairCost < bestCost) {
+                bestCost = pairCost;
+                best = () -> {
+                    // 移位的结果不能覆盖还要再用一次的 src
+                    final var tempReg = target.equals(src) ? allocateScratchRegister() : target;
+                    emit("slli " + tempReg + ", " + src + ", " + j);
+                    emit(combine + " " + target + ", " + tempReg + ", " + src);
+                    releaseScratch(tempReg, target);
+                    if (shift > 0) {
+                        emit("slli " + target + ", " + target + ", " + shift);
+                    }
+                    if (negate) {
+                        emit("sub " + target + ", x0, " + target);
+                    }
+                };
+            }
+        }
+
+        best.run();
+    }
+
+    private void releaseScratch(String tempReg, String target) {
+        if (!tempReg.equals(target)) {
+            freeRegister(tempReg);  // 释放临时寄存器
+        }
+    }
+
+    private void emit(String line) {
+        assemblyInstructions.add(line);
+    }
+
+    /**
+     * @return 生成的汇编代码, 每个元素一行
+     */
+    public List<String> getAssembly() {
+        return Collections.unmodifiableList(assemblyInstructions);
+    }
+
     /**
      * 输出汇编代码到文件
      *
@@ -186,83 +388,231 @@ public class AssemblyGenerator {
     }
 
     private void freeRegister(String reg) {
-        usedRegisters.remove(reg);
         freeRegisters.add(reg);
     }
 
 
     private String allocateRegister() {
         if (freeRegisters.isEmpty()) {
-            throw new RuntimeException("No available registers");
+            return spillRegister();
         }
         // 从空闲寄存器池中取出一个寄存器
         String reg = freeRegisters.removeLast(); // 从列表末尾取出
-        usedRegisters.add(reg);
+        if (reg.startsWith("s")) {
+            usedCalleeSaved.add(reg);
+        }
         return reg;
     }
 
-    private String getRegister(String variable) {
-        if (registerMap.containsKey(variable)) {
-            return registerMap.get(variable);
-        } else {
-            String reg = allocateRegister();
-            registerMap.put(variable, reg);
-            return reg;
+    /**
+     * @return 生成当前指令时临时使用的寄存器, 用完后由调用者释放
+     */
+    private String allocateScratchRegister() {
+        final var reg = allocateRegister();
+        lockedRegisters.add(reg);
+        return reg;
+    }
+
+    /**
+     * 溢出一个不被当前指令使用, 且下一次出现最远的变量. 同样远时优先溢出不必写回的变量
+     *
+     * @return 腾出的寄存器
+     */
+    private String spillRegister() {
+        IRVariable victim = null;
+        long victimScore = -1;
+        for (final var entry : registerMap.entrySet()) {
+            if (lockedRegisters.contains(entry.getValue())) {
+                continue;
+            }
+            final var variable = entry.getKey();
+            final long score = 2L * nextUse.get(variable).next() + (needsStore(variable) ? 0 : 1);
+            if (score > victimScore) {
+                victim = variable;
+                victimScore = score;
+            }
+        }
+        if (victim == null) {
+            throw new RuntimeException("No available registers");
         }
 
+        final var reg = registerMap.remove(victim);
+        if (needsStore(victim)) {
+            final var address = slotAddress(victim);
+            emit("sw " + reg + ", " + address);
+            dirty.remove(victim);
+        }
+        return reg;
     }
 
-    private String getOperand(IRValue value) {
-        // 返回操作数的字符串表示
-        // 假设有方法返回 IRValue 的字符串表示
-        // 如果操作数是立即数，直接返回其值
-        if (value.isImmediate()) {
-            return value.toString();  // 假设 toString 返回的是立即数的值
+    private boolean needsStore(IRVariable variable) {
+        return dirty.contains(variable) && !constants.containsKey(variable) && nextUse.get(variable).nextReads();
+    }
+
+    private int slotOffset(IRVariable variable) {
+        return 4 * stackSlots.computeIfAbsent(variable, v -> freeSlots.isEmpty() ? slotCount++ : freeSlots.removeLast());
+    }
+
+    /**
+     * 给出访问变量所在栈槽的地址操作数. 偏移量放不进 lw/sw 的 12 位立即数时, 先把 sp 加上高 20 位放入基址寄存器,
+     * 再以低 12 位为偏移量访问. 基址寄存器不参与分配, 所以即使在溢出时 (没有空闲寄存器) 也可以使用
+     *
+     * @param variable 变量
+     * @return 形如 {@code offset(sp)} 的地址
+     */
+    private String slotAddress(IRVariable variable) {
+        final var offset = slotOffset(variable);
+        if (fitsImmediate(offset)) {
+            return offset + "(sp)";
         }
-        // 有可能是存在寄存器里的，其他情况直接返回存它的寄存器。存它的寄存器可能是
 
-        // 如果是其他类型的操作数，我们分配一个新的寄存器
-        return getRegister(value.toString());  // 为该操作数分配一个新的寄存器
+        final var upper = ((offset + 0x800) >>> 12) & 0xFFFFF;
+        final var lower = offset - (upper << 12);
+        usedCalleeSaved.add(FAR_SLOT_BASE);
+        emit("lui " + FAR_SLOT_BASE + ", " + upper);
+        emit("add " + FAR_SLOT_BASE + ", " + FAR_SLOT_BASE + ", sp");
+        return lower + "(" + FAR_SLOT_BASE + ")";
+    }
 
+    private String getOperand(IRValue value) {
+        // 立即数由 generateAssembly 按指令选择处理, 这里的操作数都是变量
+        // 返回存放该变量的寄存器; 不在寄存器中时分配一个, 并从常数或栈上取回它的值
+        final var variable = (IRVariable) value;
+        var reg = registerMap.get(variable);
+        if (reg == null) {
+            reg = allocateRegister();
+            registerMap.put(variable, reg);
+            if (constants.containsKey(variable)) {
+                materialize(reg, constants.get(variable));
+            } else if (stackSlots.containsKey(variable)) {
+                emit("lw " + reg + ", " + slotAddress(variable));
+            } else {
+                // 未赋值就读取的变量, 值不确定, 但之后溢出时也需要写回
+                dirty.add(variable);
+            }
+        }
+        lockedRegisters.add(reg);
+        return reg;
     }
 
+    private String getTarget(IRVariable variable) {
+        var reg = registerMap.get(variable);
+        if (reg == null) {
+            reg = allocateRegister();
+            registerMap.put(variable, reg);
+        }
+        dirty.add(variable);
+        constants.remove(variable);
+        lockedRegisters.add(reg);
+        return reg;
+    }
 
-    private void releaseUnusedRegisters(Instruction currentInstruction) {
-        Set<String> usedInFuture = new HashSet<>();
-
-        // 遍历当前指令之后的每条指令，检查变量的使用情况
-        for (int i = instructions.indexOf(currentInstruction) + 1; i < instructions.size(); i++) {
-            Instruction instruction = instructions.get(i);
-            InstructionKind kind = instruction.getKind();
-
-            // 根据指令种类获取使用的变量
-            if (kind.isBinary()) {
-                usedInFuture.add(instruction.getLHS().toString());
-                usedInFuture.add(instruction.getRHS().toString());
-                usedInFuture.add(instruction.getResult().toString());
-            } else if (kind.isUnary()) {
-                usedInFuture.add(instruction.getFrom().toString());
-                usedInFuture.add(instruction.getResult().toString());
-            } else if (kind.isReturn()) {
-                if (instruction.getReturnValue() != null) {
-                    usedInFuture.add(instruction.getReturnValue().toString());
-                }
+    /**
+     * @param index 刚生成汇编的指令的下标
+     */
+    private void updateOccurrences(int index) {
+        for (final var occurrence : occurrences.get(index)) {
+            final var variable = occurrence.variable();
+            if (occurrence.next() != NEVER) {
+                nextUse.put(variable, occurrence);
+                continue;
             }
-        }
-        // 遍历 registerMap 中的变量，检查是否仍在使用
-        Iterator<Map.Entry<String, String>> iterator = registerMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, String> entry = iterator.next();
-            String variable = entry.getKey();
-            String register = entry.getValue();
-
-            if (!usedInFuture.contains(variable)) {
-                // 如果变量不再使用，释放寄存器
-                iterator.remove(); // 从 registerMap 中移除该变量
-                freeRegister(register); // 释放寄存器
+
+            final var register = registerMap.remove(variable);
+            if (register != null) {
+                freeRegister(register);
+            }
+            final var slot = stackSlots.remove(variable);
+            if (slot != null) {
+                freeSlots.add(slot);
             }
+            nextUse.remove(variable);
+            dirty.remove(variable);
+            constants.remove(variable);
         }
     }
-}
 
+    /**
+     * 用到栈槽或 callee-saved 寄存器时, 在入口开辟栈帧并保存寄存器, 在每个返回值写入 a0 之后恢复
+     * <br>
+     * 栈帧小于 2048 字节时用一条 addi 开辟, 保存的寄存器放在栈槽之上. 否则先开辟保存寄存器的部分并保存,
+     * 再把栈槽部分的大小装入寄存器后从 sp 中减去, 这样保存寄存器用的偏移量总在立即数范围内
+     */
+    private void emitFrame() {
+        final var saved = new ArrayList<>(usedCalleeSaved);
+        final var frameSize = (slotCount + saved.size() + 3) / 4 * 16;
+        if (frameSize == 0) {
+            return;
+        }
+
+        final var split = !fitsImmediate(frameSize);
+        final var savedArea = split ? (saved.size() + 3) / 4 * 16 : frameSize;
+        final var slotArea = split ? (slotCount + 3) / 4 * 16 : 0;
+        final var savedBase = split ? 0 : 4 * slotCount;
+
+        final var body = new ArrayList<>(assemblyInstructions);
+        assemblyInstructions.clear();
+        emitPrologue(saved, savedArea, slotArea, savedBase);
+        int from = 0;
+        for (final var position : returnPositions) {
+            assemblyInstructions.addAll(body.subList(from, position));
+            emitEpilogue(saved, savedArea, slotArea, savedBase);
+            from = position;
+        }
+        assemblyInstructions.addAll(body.subList(from, body.size()));
+    }
+
+    /**
+     * @param saved      需要保存的寄存器
+     * @param savedArea  先开辟的部分, 保存的寄存器放在其中
+     * @param slotArea   随后开辟的栈槽部分, 为 0 时栈槽与保存的寄存器都在 savedArea 中
+     * @param savedBase  第一个保存的寄存器相对于开辟 savedArea 后的 sp 的偏移量
+     */
+    private void emitPrologue(List<String> saved, int savedArea, int slotArea, int savedBase) {
+        adjustStack(-savedArea);
+        for (int i = 0; i < saved.size(); i++) {
+            emit("sw " + saved.get(i) + ", " + (savedBase + 4 * i) + "(sp)");
+        }
+        adjustStack(-slotArea);
+    }
 
+    private void emitEpilogue(List<String> saved, int savedArea, int slotArea, int savedBase) {
+        adjustStack(slotArea);
+        for (int i = 0; i < saved.size(); i++) {
+            emit("lw " + saved.get(i) + ", " + (savedBase + 4 * i) + "(sp)");
+        }
+        adjustStack(savedArea);
+    }
+
+    /**
+     * sp = sp + delta, 超出立即数范围时经 {@link #FRAME_SCRATCH} 用 lui/addi 装入后再加减
+     */
+    private void adjustStack(int delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (fitsImmediate(delta)) {
+            emit("addi sp, sp, " + delta);
+        } else {
+            materialize(FRAME_SCRATCH, Math.abs(delta));
+            emit((delta < 0 ? "sub" : "add") + " sp, sp, " + FRAME_SCRATCH);
+        }
+    }
+
+    /**
+     * @param instruction 一条 IR
+     * @return 该指令中出现的所有变量 (不重复), 包括作为结果的变量
+     */
+    private static List<IRVariable> variablesOf(Instruction instruction) {
+        final var variables = new ArrayList<IRVariable>(3);
+        for (final var operand : instruction.getOperands()) {
+            if (operand instanceof IRVariable variable && !variables.contains(variable)) {
+                variables.add(variable);
+            }
+        }
+        if (instruction.getKind() != InstructionKind.RET && !variables.contains(instruction.getResult())) {
+            variables.add(instruction.getResult());
+        }
+        return variables;
+    }
+}
@@ -0,0 +1,76 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次编译所用的 IR 变量的命名空间
+ * <br>
+ * 临时变量的序号从 0 开始在每个上下文中独立分配, 源语言变量按名字驻留. 因此同一上下文中同名的 IRVariable 总是同一个对象,
+ * 可以直接用 == 比较; 而不同的编译各用各的上下文, 互不干扰, 可以在同一个进程中同时进行.
+ * <br>
+ * 临时变量与源语言变量还各有一个从 0 开始的编号, 供需要用整数引用变量的地方 (如 IR 生成时的值句柄) 使用.
+ * <br>
+ * 一个上下文只应由一个线程使用.
+ */
+public final class IRContext {
+    /**
+     * @return 一个新的临时变量, 其序号即为之前在该上下文中分配过的临时变量的个数
+     */
+    public IRVariable newTemp() {
+        final var temp = IRVariable.tempOf(temps.size());
+        temps.add(temp);
+        return temp;
+    }
+
+    /**
+     * @param ordinal 临时变量的序号
+     * @return 该序号的临时变量
+     */
+    public IRVariable temp(int ordinal) {
+        return temps.get(ordinal);
+    }
+
+    /**
+     * @return 已分配的临时变量的个数
+     */
+    public int tempCount() {
+        return temps.size();
+    }
+
+    /**
+     * @param name 源语言中变量的名字
+     * @return 该名字对应的唯一的 IRVariable
+     */
+    public IRVariable named(String name) {
+        return namedVariables.get(namedId(name));
+    }
+
+    /**
+     * @param name 源语言中变量的名字
+     * @return 该变量的编号, 第一次出现时分配
+     */
+    public int namedId(String name) {
+        var id = namedIds.get(name);
+        if (id == null) {
+            id = namedVariables.size();
+            namedVariables.add(IRVariable.named(name));
+            namedIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id 源语言变量的编号
+     * @return 该编号的 IRVariable
+     */
+    public IRVariable named(int id) {
+        return namedVariables.get(id);
+    }
+
+    private final List<IRVariable> temps = new ArrayList<>();
+    private final List<IRVariable> namedVariables = new ArrayList<>();
+    private final Map<String, Integer> namedIds = new HashMap<>();
+}
@@ -2,9 +2,24 @@ package cn.edu.hitsz.compiler.ir;
 
 /**
  * IR 中的立即数
+ * <br>
+ * 立即数是不可变的, 源程序中常见的小整数共用预先构造的对象. 缓存之外的立即数每次都是新的对象, 因此立即数的等价性由值决定.
  */
 public class IRImmediate implements IRValue {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final IRImmediate[] cache = new IRImmediate[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new IRImmediate(CACHE_LOW + i);
+        }
+    }
+
     public static IRImmediate of(int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return cache[value - CACHE_LOW];
+        }
         return new IRImmediate(value);
     }
 
@@ -19,6 +34,16 @@ public class IRImmediate implements IRValue {
         return Integer.toString(value);
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof IRImmediate immediate && value == immediate.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(value);
+    }
+
     private IRImmediate(int value) {
         this.value = value;
     }
@@ -7,29 +7,44 @@ package cn.edu.hitsz.compiler.ir;
  * name 来表示. 临时变量的 name 都是 "$[0-9]+", 而非临时变量的 name 都是 "[a-zA-Z_][a-zA-Z0-9_]*"
  * <br>
  * IR 变量的等价性由 name 唯一确定.
+ * <br>
+ * 临时变量只保存其序号, name 在第一次需要时才拼接出来, 因此生成 IR 时创建临时变量不必拼接字符串.
+ * <br>
+ * IRVariable 只能由 {@link IRContext} 创建, 因此同一次编译中的变量总是该上下文中规范化的对象.
  */
 public class IRVariable implements IRValue {
     /**
      * @param name 源语言中变量的名字
-     * @return 一个对应于源语言中具体变量的 IRVariable
+     * @return 一个对应于源语言中具体变量的 IRVariable, 由 {@link IRContext} 负责按名字驻留
      */
-    public static IRVariable named(String name) {
-        return new IRVariable(name);
+    static IRVariable named(String name) {
+        return new IRVariable(name, -1);
     }
 
     /**
-     * @return 一个对应于源语言中的临时变量的新 IRVariable
+     * @param ordinal 临时变量的序号
+     * @return 该序号的临时变量, 由 {@link IRContext} 负责序号的分配
      */
-    public static IRVariable temp() {
-        return new IRVariable("$" + count++);
+    static IRVariable tempOf(int ordinal) {
+        return new IRVariable(null, ordinal);
     }
 
     public String getName() {
+        if (name == null) {
+            name = "$" + ordinal;
+        }
         return name;
     }
 
+    /**
+     * @return 临时变量的序号; 非临时变量为 -1
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
     public boolean isTemp() {
-        return name.startsWith("$");
+        return ordinal >= 0;
     }
 
     public boolean isNamed() {
@@ -38,23 +53,26 @@ public class IRVariable implements IRValue {
 
     @Override
     public String toString() {
-        return name;
+        return getName();
     }
 
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof IRVariable reg && name.equals(reg.name);
+        // 临时变量的 name 由序号决定, 而非临时变量的 name 不会以 $ 开头, 因此可以分别比较
+        return obj instanceof IRVariable reg
+            && (isTemp() ? ordinal == reg.ordinal : name.equals(reg.name));
     }
 
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return isTemp() ? Integer.hashCode(ordinal) : name.hashCode();
     }
 
-    private IRVariable(String name) {
+    private IRVariable(String name, int ordinal) {
         this.name = name;
+        this.ordinal = ordinal;
     }
 
-    private final String name;
-    private static int count = 0;
+    private String name;
+    private final int ordinal;
 }
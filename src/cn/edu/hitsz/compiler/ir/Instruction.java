@@ -48,6 +48,23 @@ public class Instruction {
         return new Instruction(InstructionKind.RET, null, List.of(returnValue));
     }
 
+    /**
+     * 构造一条种类相同, 但结果与参数替换过的指令, 供 IR 上的优化改写指令使用
+     *
+     * @param newResult   新的结果, RET 指令为 null
+     * @param newOperands 新的参数, 个数须与原指令相同
+     * @return 新的指令; 结果与参数都没有变化时返回原指令
+     */
+    public Instruction rewrite(IRVariable newResult, List<IRValue> newOperands) {
+        if (newOperands.size() != operands.size() || (newResult == null) != (result == null)) {
+            throw new RuntimeException("Illegal rewrite of %s to (%s, %s)".formatted(this, newResult, newOperands));
+        }
+        if (Objects.equals(newResult, result) && newOperands.equals(operands)) {
+            return this;
+        }
+        return new Instruction(kind, newResult, List.copyOf(newOperands));
+    }
+
 
     //============================== 不同种类 IR 的参数 getter ==============================
     public InstructionKind getKind() {
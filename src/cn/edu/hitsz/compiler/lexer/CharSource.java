@@ -0,0 +1,55 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.io.Closeable;
+
+/**
+ * 词法分析器的输入源
+ * <br>
+ * 词法分析器只通过 peek/advance 逐个消耗字符, 并在词素开始时 mark, 结束时用 lexeme 取出词素的文本.
+ * 输入源保证从 mark 到当前位置的字符在取出之前一直可用, 因此词法分析过程中不需要再另外累积词素文本,
+ * 只有真正需要文本的词法单元才会构造出 String. 同样因为这些字符一直可用, 最长匹配失败时可以用 reset 退回到较短的词素.
+ *
+ * @see SourceWindow 定长窗口的流式输入
+ * @see MappedSource 内存映射的字节输入
+ */
+interface CharSource extends Closeable {
+    /**
+     * @return 当前字符; 若输入已经结束则返回 -1
+     */
+    int peek();
+
+    /**
+     * 消耗当前字符, 保证在 peek 返回非负值之后调用
+     */
+    void advance();
+
+    /**
+     * 将当前位置标记为词素的开头
+     */
+    void mark();
+
+    /**
+     * @return 上一次 mark 的位置在整个输入中的偏移量 (字符数)
+     */
+    int markedOffset();
+
+    /**
+     * @return 从上一次 mark 到当前位置的字符数
+     */
+    int consumed();
+
+    /**
+     * 退回到上一次 mark 之后的第 length 个字符处, 之后的字符会被重新读取
+     *
+     * @param length 保留的词素长度, 不超过 {@link #consumed()}
+     */
+    void reset(int length);
+
+    /**
+     * @return 从上一次 mark 到当前位置的文本
+     */
+    String lexeme();
+
+    @Override
+    void close();
+}
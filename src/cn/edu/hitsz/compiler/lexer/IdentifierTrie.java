@@ -0,0 +1,186 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.util.Arrays;
+
+/**
+ * 标识符与关键字的字典树
+ * <br>
+ * 词法分析器在扫描标识符的同时沿字典树逐字符向下走, 扫描结束时所在的结点就唯一确定了这个词素:
+ * 它要么是预先放入的关键字, 要么是某个标识符. 每个标识符结点在第一次出现时才构造出名字并加入符号表,
+ * 之后同名标识符的出现直接复用结点上规范化的名字, 不再需要构造 String 或做哈希查找.
+ * <br>
+ * 结点编号因此可以直接作为标识符文本的编号, 每个结点上也缓存着对应的词法单元对象.
+ * 整数字面量不进入字典树: 不同字面量的个数没有上限, 为每个字面量都留下结点会让字典树随输入无限增长.
+ * <br>
+ * 字典树以数组形式存储, 结点的各项信息分别放在以结点编号为下标的数组中. 只有根结点带有按字母序号下标的稠密子结点表;
+ * 其余结点的子结点按字母序号从小到大串成链表 ({@code firstChild} 与 {@code nextSibling}), 每个结点只占十几个字节,
+ * 而不是每个前缀一整行字母表. 标识符的字符集很小, 根以下各结点的分支通常也只有寥寥几个, 沿链表查找的代价可以忽略.
+ * 0 表示不存在 (根结点不会是子结点).
+ */
+final class IdentifierTrie {
+    private static final int ROOT = 0;
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * @param table       词法分析表, 决定哪些字符可以出现在标识符中以及有哪些关键字
+     * @param symbolTable 新标识符要加入的符号表
+     */
+    IdentifierTrie(LexTable table, SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+
+        int size = 0;
+        for (int ch = 0; ch < 128; ch++) {
+            alphabet[ch] = table.isIdentifierPart(ch) ? (byte) size++ : -1;
+        }
+
+        this.rootChildren = new int[size];
+        this.firstChild = new int[INITIAL_CAPACITY];
+        this.nextSibling = new int[INITIAL_CAPACITY];
+        this.labels = new byte[INITIAL_CAPACITY];
+        this.keywords = new TokenKind[INITIAL_CAPACITY];
+        this.names = new String[INITIAL_CAPACITY];
+        this.tokens = new Token[INITIAL_CAPACITY];
+        this.nodeCount = 1;
+
+        for (final var keyword : table.keywords().entrySet()) {
+            addKeyword(keyword.getKey(), keyword.getValue());
+        }
+    }
+
+    /**
+     * @return 根结点, 扫描标识符时从这里开始
+     */
+    int root() {
+        return ROOT;
+    }
+
+    /**
+     * 沿字典树走一步, 子结点不存在时创建之
+     *
+     * @param node 当前结点
+     * @param ch   下一个字符, 输入结束时为 -1
+     * @return 子结点; 若 ch 不能出现在标识符中则返回 -1
+     */
+    int step(int node, int ch) {
+        if ((ch & ~0x7F) != 0 || alphabet[ch] < 0) {
+            return -1;
+        }
+
+        final var letter = alphabet[ch];
+        if (node == ROOT) {
+            var child = rootChildren[letter];
+            if (child == ROOT) {
+                child = newNode(letter);
+                rootChildren[letter] = child;
+            }
+            return child;
+        }
+
+        // 在按字母序号排好的子结点链表中查找, 找不到时插在第一个更大的子结点之前
+        int previous = ROOT;
+        int child = firstChild[node];
+        while (child != ROOT && labels[child] < letter) {
+            previous = child;
+            child = nextSibling[child];
+        }
+        if (child != ROOT && labels[child] == letter) {
+            return child;
+        }
+
+        final var created = newNode(letter);
+        nextSibling[created] = child;
+        if (previous == ROOT) {
+            firstChild[node] = created;
+        } else {
+            nextSibling[previous] = created;
+        }
+        return created;
+    }
+
+    /**
+     * @param node 扫描结束时所在的结点
+     * @return 该结点对应的关键字; 不是关键字时返回 null
+     */
+    TokenKind keyword(int node) {
+        return keywords[node];
+    }
+
+    /**
+     * 确保结点对应的标识符已经有规范化的名字, 第一次出现时从 text 中取出名字并加入符号表
+     *
+     * @param node 扫描结束时所在的结点
+     * @param text 刚扫描完该标识符的输入源, 只有第一次出现时才会从中取出文本
+     */
+    void internIdentifier(int node, CharSource text) {
+        if (names[node] == null) {
+            final var name = text.lexeme();
+            if (!symbolTable.has(name)) {
+                symbolTable.add(name);
+            }
+            names[node] = name;
+        }
+    }
+
+    /**
+     * @param node 已经 intern 过的结点
+     * @return 该结点的规范化文本
+     */
+    String text(int node) {
+        return names[node];
+    }
+
+    /**
+     * @param node 已经 intern 过的结点
+     * @param kind 该结点对应的词法单元类型 (id)
+     * @return 该结点对应的词法单元, 同一结点总是返回同一个对象
+     */
+    Token token(int node, TokenKind kind) {
+        var token = tokens[node];
+        if (token == null) {
+            token = Token.normal(kind, names[node]);
+            tokens[node] = token;
+        }
+        return token;
+    }
+
+    private void addKeyword(String spelling, TokenKind kind) {
+        int node = ROOT;
+        for (final var ch : spelling.toCharArray()) {
+            node = step(node, ch);
+            if (node < 0) {
+                throw new RuntimeException("Keyword is not a valid identifier: " + spelling);
+            }
+        }
+        keywords[node] = kind;
+    }
+
+    private int newNode(byte letter) {
+        if (nodeCount == keywords.length) {
+            final var capacity = nodeCount * 2;
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            keywords = Arrays.copyOf(keywords, capacity);
+            names = Arrays.copyOf(names, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+        labels[nodeCount] = letter;
+        return nodeCount++;
+    }
+
+    private final SymbolTable symbolTable;
+
+    // 字符到字母序号的映射, 不能出现在标识符中的字符为 -1
+    private final byte[] alphabet = new byte[128];
+
+    private final int[] rootChildren;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private byte[] labels;
+    private TokenKind[] keywords;
+    private String[] names;
+    private Token[] tokens;
+    private int nodeCount;
+}
@@ -0,0 +1,304 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import cn.edu.hitsz.compiler.utils.FileUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 表驱动词法分析所用的 DFA 转移表
+ * <br>
+ * 转移表在启动时由码点文件 (coding_map.csv) 与 TokenKind 中允许的词法单元类型构造出来:
+ * <ul>
+ *     <li>id 与 IntConst 分别对应 [a-zA-Z_][a-zA-Z0-9_]* 与 [0-9]+ 两条固定的规则</li>
+ *     <li>写法全为字母的词法单元 (如 int, return) 是关键字, 先按标识符识别, 再查关键字表</li>
+ *     <li>写法全为标点的词法单元 (如 +, =) 在 DFA 中展开为一条从起始状态出发的路径, 支持多字符的标点</li>
+ * </ul>
+ * 词法单元的写法默认就是它在码点文件中的标识符; 若标识符与写法不同 (如 Semicolon 对应 ;), 则在码点文件的该行末尾再加一列写法.
+ * 因此增加一种词法单元只需要修改码点文件.
+ * <br>
+ * 每个 ASCII 字符先经一张 128 项的字符类表映射为字符类, 转移表是按 {@code 状态 * 字符类数 + 字符类} 展开的一维数组,
+ * 分析时每个字符只需要两次数组访问.
+ */
+public final class LexTable {
+    /**
+     * 起始状态. 起始状态在空白字符上转移到自身, 在其它任何字符上都有转移, 只有在输入结束时才无路可走
+     */
+    static final int START = 0;
+
+    /**
+     * 标识符状态. 从起始状态进入该状态后, 标识符的其余部分交给 {@link IdentifierTrie} 边扫描边查找
+     */
+    static final int STATE_ID = 1;
+
+    /**
+     * 整数状态. 从起始状态进入该状态后, 同样交给 {@link IdentifierTrie} 规范化其文本
+     */
+    static final int STATE_INT_CONST = 2;
+
+    // 接受状态对应的动作, 大于等于 ACCEPT_SIMPLE 的值表示接受 simpleKinds 中第 (值 - ACCEPT_SIMPLE) 个类型的简单词法单元
+    static final int ACCEPT_NONE = 0;
+    static final int ACCEPT_ID = 1;
+    static final int ACCEPT_INT_CONST = 2;
+    static final int ACCEPT_SIMPLE = 3;
+
+    /**
+     * 从码点文件构造转移表, 需要在 {@link TokenKind#loadTokenKinds()} 之后调用
+     *
+     * @param codingMapPath 码点文件路径
+     * @return 转移表
+     */
+    public static LexTable load(String codingMapPath) {
+        // 码点文件每行形如 `5 Semicolon ;`, 第三列写法可以省略
+        final var spellings = new HashMap<String, String>();
+        for (final var line : FileUtils.readLines(codingMapPath)) {
+            final var words = line.split(" ");
+            spellings.put(words[1], words.length > 2 ? words[2] : words[1]);
+        }
+
+        final var builder = new Builder();
+        for (final var entry : spellings.entrySet()) {
+            builder.addKind(TokenKind.fromString(entry.getKey()), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param state 当前状态
+     * @param ch    当前字符, 输入结束时为 -1
+     * @return 转移到的状态; 无路可走时返回 -1
+     */
+    int transition(int state, int ch) {
+        if ((ch & ~0x7F) == 0) {
+            return transitions[state * classCount + charClasses[ch]];
+        }
+
+        // 输入结束时总是无路可走, 非 ASCII 字符都视为非法字符
+        return ch < 0 ? -1 : transitions[state * classCount + CLASS_OTHER];
+    }
+
+    /**
+     * @param state 停下时所处的状态
+     * @return 该状态的接受动作
+     */
+    int accept(int state) {
+        return accepts[state];
+    }
+
+    /**
+     * @param action 大于等于 ACCEPT_SIMPLE 的接受动作
+     * @return 该动作对应的简单词法单元的类型
+     */
+    TokenKind simpleKind(int action) {
+        return simpleKinds[action - ACCEPT_SIMPLE];
+    }
+
+    /**
+     * @param code 词法单元类型的码点, EOF 为 -1
+     * @return 该码点对应的词法单元类型
+     */
+    public TokenKind kind(int code) {
+        return kindsByCode[code + 1];
+    }
+
+    /**
+     * @param code 词法单元类型的码点, EOF 为 -1
+     * @return 该类型的不带文本的词法单元, 同一类型总是返回同一个对象
+     */
+    public Token simpleToken(int code) {
+        return simpleTokensByCode[code + 1];
+    }
+
+    /**
+     * @param ch ASCII 字符
+     * @return 该字符能否出现在标识符中
+     */
+    boolean isIdentifierPart(int ch) {
+        return charClasses[ch] == CLASS_LETTER || charClasses[ch] == CLASS_DIGIT;
+    }
+
+    /**
+     * @return 所有关键字的写法到类型的映射
+     */
+    Map<String, TokenKind> keywords() {
+        return keywords;
+    }
+
+    //==================== 以下为表的构造 ==============================//
+
+    // 固定的字符类, 标点字符的字符类从 CLASS_FIRST_PUNCTUATION 开始依次分配
+    private static final int CLASS_OTHER = 0;
+    private static final int CLASS_WHITESPACE = 1;
+    private static final int CLASS_LETTER = 2;
+    private static final int CLASS_DIGIT = 3;
+    private static final int CLASS_FIRST_PUNCTUATION = 4;
+
+    // 固定的状态, 标点路径上的状态从 STATE_FIRST_PUNCTUATION 开始依次分配
+    private static final int STATE_ERROR = 3;
+    private static final int STATE_FIRST_PUNCTUATION = 4;
+
+    private static final class Builder {
+        private final byte[] charClasses = new byte[128];
+        private int classCount = CLASS_FIRST_PUNCTUATION;
+
+        // 标点路径上的转移, 每个状态一张 字符类 -> 状态 的表
+        private final List<Map<Integer, Integer>> punctuationEdges = new ArrayList<>();
+        private final List<Integer> punctuationAccepts = new ArrayList<>();
+
+        private final List<TokenKind> simpleKinds = new ArrayList<>();
+        private final Map<String, TokenKind> keywords = new HashMap<>();
+
+        Builder() {
+            for (int ch = 0; ch < 128; ch++) {
+                if (Character.isWhitespace(ch)) {
+                    charClasses[ch] = CLASS_WHITESPACE;
+                } else if (Character.isLetter(ch) || ch == '_') {
+                    charClasses[ch] = CLASS_LETTER;
+                } else if (Character.isDigit(ch)) {
+                    charClasses[ch] = CLASS_DIGIT;
+                } else {
+                    charClasses[ch] = CLASS_OTHER;
+                }
+            }
+
+            // 起始状态也是标点路径的根
+            newPunctuationState();
+        }
+
+        void addKind(TokenKind kind, String spelling) {
+            switch (kind.getIdentifier()) {
+                // 由固定规则识别的两类词法单元
+                case "id", "IntConst" -> {
+                }
+
+                default -> {
+                    if (spelling.chars().allMatch(ch -> ch < 128 && charClasses[ch] == CLASS_LETTER)) {
+                        keywords.put(spelling, kind);
+                    } else if (spelling.chars().allMatch(ch -> ch < 128 && isPunctuationClass(ch))) {
+                        addPunctuation(kind, spelling);
+                    } else {
+                        throw new RuntimeException("Can not derive a lexical rule for %s from spelling '%s'"
+                            .formatted(kind, spelling));
+                    }
+                }
+            }
+        }
+
+        private boolean isPunctuationClass(int ch) {
+            return charClasses[ch] == CLASS_OTHER || charClasses[ch] >= CLASS_FIRST_PUNCTUATION;
+        }
+
+        private void addPunctuation(TokenKind kind, String spelling) {
+            // 沿着起始状态展开一条路径, 路径的终点接受该类型
+            int state = 0;
+            for (final var ch : spelling.toCharArray()) {
+                if (charClasses[ch] == CLASS_OTHER) {
+                    charClasses[ch] = (byte) classCount++;
+                }
+
+                final int cls = charClasses[ch];
+                final var edges = punctuationEdges.get(state);
+                if (!edges.containsKey(cls)) {
+                    edges.put(cls, newPunctuationState());
+                }
+                state = edges.get(cls);
+            }
+
+            if (punctuationAccepts.get(state) != ACCEPT_NONE) {
+                throw new RuntimeException("Duplicated spelling of token kind: " + spelling);
+            }
+            punctuationAccepts.set(state, ACCEPT_SIMPLE + simpleKinds.size());
+            simpleKinds.add(kind);
+        }
+
+        private int newPunctuationState() {
+            punctuationEdges.add(new HashMap<>());
+            punctuationAccepts.add(ACCEPT_NONE);
+            return punctuationEdges.size() - 1;
+        }
+
+        /**
+         * @param punctuationState 标点路径上的状态编号 (0 为起始状态)
+         * @return 其在最终转移表中的状态编号
+         */
+        private static int toState(int punctuationState) {
+            return punctuationState == 0 ? START : punctuationState - 1 + STATE_FIRST_PUNCTUATION;
+        }
+
+        LexTable build() {
+            final var stateCount = STATE_FIRST_PUNCTUATION + punctuationEdges.size() - 1;
+            final var transitions = new int[stateCount * classCount];
+            final var accepts = new int[stateCount];
+            Arrays.fill(transitions, -1);
+
+            // 起始状态: 跳过空白, 字母进入标识符, 数字进入整数, 未知字符进入错误状态
+            transitions[START * classCount + CLASS_WHITESPACE] = START;
+            transitions[START * classCount + CLASS_LETTER] = STATE_ID;
+            transitions[START * classCount + CLASS_DIGIT] = STATE_INT_CONST;
+            transitions[START * classCount + CLASS_OTHER] = STATE_ERROR;
+
+            transitions[STATE_ID * classCount + CLASS_LETTER] = STATE_ID;
+            transitions[STATE_ID * classCount + CLASS_DIGIT] = STATE_ID;
+            accepts[STATE_ID] = ACCEPT_ID;
+
+            transitions[STATE_INT_CONST * classCount + CLASS_DIGIT] = STATE_INT_CONST;
+            accepts[STATE_INT_CONST] = ACCEPT_INT_CONST;
+
+            // 错误状态只消耗一个字符, 且不接受
+            accepts[STATE_ERROR] = ACCEPT_NONE;
+
+            for (int idx = 0; idx < punctuationEdges.size(); idx++) {
+                final var from = toState(idx);
+                for (final var edge : punctuationEdges.get(idx).entrySet()) {
+                    transitions[from * classCount + edge.getKey()] = toState(edge.getValue());
+                }
+                if (idx != 0) {
+                    accepts[from] = punctuationAccepts.get(idx);
+                }
+            }
+
+            // 没有出现在任何写法中的标点字符都是非法字符
+            for (int cls = CLASS_FIRST_PUNCTUATION; cls < classCount; cls++) {
+                if (transitions[START * classCount + cls] < 0) {
+                    transitions[START * classCount + cls] = STATE_ERROR;
+                }
+            }
+
+            return new LexTable(charClasses, classCount, transitions, accepts,
+                simpleKinds.toArray(new TokenKind[0]), keywords);
+        }
+    }
+
+    private LexTable(byte[] charClasses, int classCount, int[] transitions, int[] accepts,
+                     TokenKind[] simpleKinds, Map<String, TokenKind> keywords) {
+        this.charClasses = charClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.simpleKinds = simpleKinds;
+        this.keywords = Map.copyOf(keywords);
+
+        // 码点下标整体偏移 1, 使 EOF 的码点 -1 也能作为下标
+        final var allKinds = TokenKind.allAllowedTokenKinds().values();
+        final var maxCode = allKinds.stream().mapToInt(TokenKind::getCode).max().orElse(-1);
+        this.kindsByCode = new TokenKind[maxCode + 2];
+        this.simpleTokensByCode = new Token[maxCode + 2];
+        for (final var kind : allKinds) {
+            kindsByCode[kind.getCode() + 1] = kind;
+            simpleTokensByCode[kind.getCode() + 1] = Token.simple(kind);
+        }
+        simpleTokensByCode[TokenKind.eof().getCode() + 1] = Token.eof();
+    }
+
+    private final byte[] charClasses;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] accepts;
+    private final TokenKind[] simpleKinds;
+    private final Map<String, TokenKind> keywords;
+    private final TokenKind[] kindsByCode;
+    private final Token[] simpleTokensByCode;
+}
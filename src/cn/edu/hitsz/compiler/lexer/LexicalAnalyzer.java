@@ -1,18 +1,23 @@
 package cn.edu.hitsz.compiler.lexer;
 
-import cn.edu.hitsz.compiler.NotImplementedException;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.stream.StreamSupport;
 
 /**
- * TODO: 实验一: 实现词法分析
+ * 表驱动的词法分析器
+ * <br>
+ * 源代码通过 {@link CharSource} 按需读入, 按 {@link LexTable} 的转移表做最长匹配, 标识符与关键字由 {@link IdentifierTrie}
+ * 边扫描边查找. 结果既可以由 {@link #run()} 一次性存入 {@link TokenBuffer}, 也可以由 {@link #getTokens()} 作为惰性的 token 流交给语法分析器.
  * <br>
  * 你可能需要参考的框架代码如下:
  *
@@ -20,150 +25,277 @@ import java.util.stream.StreamSupport;
  * @see TokenKind 词法单元类型的实现
  */
 public class LexicalAnalyzer {
+    // 流式读入时输入窗口的默认大小 (字符数)
+    private static final int DEFAULT_WINDOW_SIZE = 8192;
+
+    // nextToken 在输入结束时的返回值, 不会与任何码点冲突
+    private static final int END = Integer.MIN_VALUE;
+
+    // lastText 取此值时说明最近的词法单元是整数字面量, 其对象在 lastLiteral 中
+    private static final int LITERAL = -1;
+
+    // 字面量缓存的容量上限, 超出后新出现的字面量不再缓存
+    private static final int LITERAL_CACHE_SIZE = 4096;
+
     private final SymbolTable symbolTable;
+    private final LexTable table;
+    private final IdentifierTrie identifiers;
+    private final TokenKind idKind = TokenKind.fromString("id");
+    private final TokenKind intConstKind = TokenKind.fromString("IntConst");
+    private final int windowSize;
+
+    // 输入源代码，读取文件时打开，分析时按需读入
+    private CharSource source = null;
 
-    // 输入源代码，初始为空，读取文件时追加
-    private String sourceCode = "";
+    // 完整分析后的 token 列表; 为 null 时说明没有调用过 run, getTokens 将按需分析
+    private TokenBuffer tokens = null;
 
-    public List<Token> tokens = new ArrayList<>();
+    // 最近一次识别出的词法单元的文本编号与偏移量
+    private int lastText = 0;
+    private int lastOffset = 0;
+    private Token lastLiteral = null;
+
+    // 分析中遇到的词法错误, 不直接输出, 由调用者决定如何报告
+    private final List<String> errors = new ArrayList<>();
+
+    // 常见整数字面量的规范化对象, 容量有上限, 不会随输入中不同字面量的个数增长
+    private final Map<String, Token> literals = new HashMap<>();
 
     public LexicalAnalyzer(SymbolTable symbolTable) {
+        this(symbolTable, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param symbolTable 符号表
+     * @param windowSize  输入窗口的大小 (字符数), 分析时占用的输入缓冲区不会超过该大小
+     */
+    public LexicalAnalyzer(SymbolTable symbolTable, int windowSize) {
+        this(symbolTable, LexTable.load(FilePathConfig.CODING_MAP_PATH), windowSize);
+    }
+
+    /**
+     * 转移表构造后不再改变, 同时进行的多个词法分析可以共用同一张转移表, 不必每次都重新读取码点文件
+     *
+     * @param symbolTable 符号表
+     * @param table       转移表
+     */
+    public LexicalAnalyzer(SymbolTable symbolTable, LexTable table) {
+        this(symbolTable, table, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param symbolTable 符号表
+     * @param table       转移表
+     * @param windowSize  输入窗口的大小 (字符数), 分析时占用的输入缓冲区不会超过该大小
+     */
+    public LexicalAnalyzer(SymbolTable symbolTable, LexTable table, int windowSize) {
+        if (windowSize <= 0) {
+            throw new RuntimeException("Window size must be positive");
+        }
+
         this.symbolTable = symbolTable;
+        this.table = table;
+        this.identifiers = new IdentifierTrie(table, symbolTable);
+        this.windowSize = windowSize;
     }
 
 
     /**
      * 从给予的路径中读取并加载文件内容
+     * <br>
+     * 这里只打开文件, 文件内容在分析过程中才以定长窗口的形式逐段读入
      *
      * @param path 路径
      */
     public void loadFile(String path) {
-        // TODO: 词法分析前的缓冲区实现
-        // 可自由实现各类缓冲区
-        // 或直接采用完整读入方法
-        StringBuilder inputCodeBuilder = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                inputCodeBuilder.append(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        sourceCode = inputCodeBuilder.toString();
+        source = SourceWindow.open(path, windowSize);
+        tokens = null;
+        errors.clear();
+    }
+
+    /**
+     * 以内存映射的方式加载文件内容
+     * <br>
+     * 映射后直接按字节扫描, 不经过字符解码, 仅适用于纯 ASCII 的源文件
+     *
+     * @param path 路径
+     */
+    public void loadMappedFile(String path) {
+        source = MappedSource.open(path);
+        tokens = null;
+        errors.clear();
     }
 
 
     /**
      * 执行词法分析，准备好用于返回的 token 列表
      * 需要维护实验一所需的符号表条目，而得在语法分析中才能确定的符号表条目的成员可以先设置为 null
+     * <br>
+     * 结果存放在紧凑的 {@link TokenBuffer} 中. 若只需要将 token 流交给语法分析器, 可以不调用此方法而直接使用 {@link #getTokens()} 按需分析
      */
     public void run() {
-        int i = 0;
-        char[] word = sourceCode.toCharArray();
-        State currentState = State.START;
-
-        while (i < sourceCode.length()) {
-            char ch = word[i];
-
-            // 状态转移
-            switch (currentState) {
-                case START -> {
-                    if (Character.isWhitespace(ch)) {
-                        //  若ch为空格，直接读下一个字符，保持为START状态
-                        i++;
-                    } else if (isSinglePunctuation(ch)) {
-//                        currentState = State.SINGLE_PUNCTUATION;
-                        // 如果是可以用simple方法直接构造的Token，直接把他构造了，读下一个字符，并且要注意分号
-                        // 能够用Token.simple()方法的情况，但是要判断';'传入'semicolon'
-                        if (ch == ';') {
-                            tokens.add(Token.simple("Semicolon"));
-                        } else {
-                            tokens.add(Token.simple(String.valueOf(ch)));
-                        }
-                        i++;
-
-                    } else if (Character.isLetter(ch)) {
-                        currentState = State.ID;
-                    } else if (Character.isDigit(ch)) {
-                        currentState = State.INTCONST;
-                    } else {
-                        currentState = State.ERROR;
-                    }
-                }
-                // 能够用Token.simple()方法的情况，但是要判断';'传入'semicolon'
-                case INTCONST -> {
-                    int index = i;
-                    for (; i < sourceCode.length() && Character.isLetter(word[i]); i++) {}
-                    String digit = sourceCode.substring(index, i);
-                    tokens.add(Token.normal("IntConst", digit));    // 将(index, i)的内容即数字字段读下创建TOken
-                    currentState = State.START;                                // 回到start状态
-                }
-                case ID -> {
-                    int index = i;
-                    for (; i < sourceCode.length() && Character.isLetter(word[i]); i++) {}
-
-                    String key = sourceCode.substring(index, i);     // 将[a-zA-Z]+ 的字段(index,i)存下来
-
-                    // 如果已经在符号表里面的，如int和return 就可以直接用simple方法构建
-                    if (TokenKind.isAllowed(key)) {
-                        tokens.add(Token.simple(key));
-                    } else {
-                        tokens.add(Token.normal("id", key));
-                        if (!symbolTable.has(key)) {
-                            symbolTable.add(key);
-                        }
-                    }
-                    currentState = State.START;
-                }
-                case ERROR -> {
-                    System.out.println("errorInput");
-                    i++; // 跳过错误字符
-                    currentState = State.START;
-                }
+        final var result = new TokenBuffer(table, identifiers);
+        int code;
+        while ((code = nextToken()) != END) {
+            if (lastText == LITERAL) {
+                result.addLiteral(lastLiteral, lastOffset);
+            } else {
+                result.add(code, lastText, lastOffset);
             }
         }
 
         // 插入结束符
-        tokens.add(Token.eof());
+        result.add(TokenKind.eof().getCode(), 0, lastOffset);
+        tokens = result;
     }
 
     /**
+     * 从输入源中识别出下一个词法单元
+     * <br>
+     * 按转移表一直转移到无路可走为止, 同时记下最近经过的接受状态及其词素长度. 停下的状态不接受时, 退回到最近的接受状态,
+     * 即取能匹配的最长词素 (如只有 = 与 === 时, == 被识别为两个 =). 没有经过任何接受状态时, 第一个字符是非法字符.
+     * 该方法不构造 Token 对象, 只返回类型的码点, 并把文本编号与偏移量记录在 lastText 与 lastOffset 中
      *
-     * @param ch run()过程中每次读取的一个字符
-     * 判断ch是否能够用 Token.simple()方法构建Token
-     * @return bool值
+     * @return 下一个词法单元类型的码点; 输入结束时返回 END
      */
-    // 判断是否为单字符标点
-    private boolean isSinglePunctuation(char ch) {
-        return ch == ',' || ch == ';' || ch == '=' || ch == '+' || ch == '-' || ch == '*' || ch == '/' || ch == '(' || ch == ')';
+    private int nextToken() {
+        while (true) {
+            int state = LexTable.START;
+            int lastAction = LexTable.ACCEPT_NONE;
+            int lastLength = 0;
+            int next;
+            while ((next = table.transition(state, source.peek())) >= 0) {
+                // 起始状态只会在空白上转移到自身, 离开起始状态的字符就是词素的开头
+                if (state == LexTable.START) {
+                    source.mark();
+                    lastOffset = source.markedOffset();
+                    if (next == LexTable.STATE_ID) {
+                        return scanIdentifier();
+                    } else if (next == LexTable.STATE_INT_CONST) {
+                        return scanIntConst();
+                    }
+                }
+                state = next;
+                source.advance();
+                if (table.accept(state) != LexTable.ACCEPT_NONE) {
+                    lastAction = table.accept(state);
+                    lastLength = source.consumed();
+                }
+            }
+
+            // 起始状态上无路可走说明输入已经结束
+            if (state == LexTable.START) {
+                return END;
+            }
+
+            if (lastAction >= LexTable.ACCEPT_SIMPLE) {
+                source.reset(lastLength);
+                lastText = 0;
+                return table.simpleKind(lastAction).getCode();
+            }
+
+            // 没有经过接受状态说明第一个字符是非法字符, 跳过它, 从下一个字符重新开始
+            source.reset(1);
+            errors.add("Illegal input '%s' at offset %d".formatted(source.lexeme(), lastOffset));
+        }
     }
 
-    // 定义状态
-    private enum State {
-        START,
-        INTCONST,
-        ID,
-        ERROR
+    /**
+     * 沿字典树扫描一个标识符, 扫描结束时就已经知道它是关键字还是标识符
+     *
+     * @return 关键字或 id 的码点
+     */
+    private int scanIdentifier() {
+        int node = identifiers.root();
+        int child;
+        while ((child = identifiers.step(node, source.peek())) >= 0) {
+            node = child;
+            source.advance();
+        }
+
+        // 如果是关键字, 如int和return 就不带文本
+        final var keyword = identifiers.keyword(node);
+        if (keyword != null) {
+            lastText = 0;
+            return keyword.getCode();
+        }
+
+        // 否则使用规范化的名字, 同名标识符只有第一次出现时才构造名字并加入符号表
+        identifiers.internIdentifier(node, source);
+        lastText = node;
+        return idKind.getCode();
     }
 
+    /**
+     * 扫描一个整数字面量, 文本直接从输入窗口中取出
+     * <br>
+     * 字面量不进入字典树; 缓存未满时相同的字面量共享同一个词法单元, 缓存满了之后每次出现各自构造
+     *
+     * @return IntConst 的码点
+     */
+    private int scanIntConst() {
+        while (table.transition(LexTable.STATE_INT_CONST, source.peek()) >= 0) {
+            source.advance();
+        }
+
+        final var text = source.lexeme();
+        var literal = literals.get(text);
+        if (literal == null) {
+            literal = Token.normal(intConstKind, text);
+            if (literals.size() < LITERAL_CACHE_SIZE) {
+                literals.put(text, literal);
+            }
+        }
 
+        lastText = LITERAL;
+        lastLiteral = literal;
+        return intConstKind.getCode();
+    }
 
     /**
-     * 获得词法分析的结果, 保证在调用了 run 方法之后调用
+     * 由 nextToken 的结果构造出规范化的 Token 对象
+     *
+     * @param code 类型的码点
+     * @return 对应的 Token
+     */
+    private Token tokenOf(int code) {
+        if (lastText == LITERAL) {
+            return lastLiteral;
+        }
+        return lastText == 0 ? table.simpleToken(code) : identifiers.token(lastText, table.kind(code));
+    }
+
+    /**
+     * 获得词法分析的结果
+     * <br>
+     * 若已经调用了 run 方法, 则返回完整的 {@link TokenBuffer}; 否则返回一个只能遍历一次的惰性序列,
+     * 每次取下一个 Token 时才从输入窗口中分析出它, 此时内存占用只取决于窗口大小而与文件大小无关
      *
      * @return Token 列表
      */
     public Iterable<Token> getTokens() {
-        // TODO: 从词法分析过程中获取 Token 列表
-        // 词法分析过程可以使用 Stream 或 Iterator 实现按需分析
-        // 亦可以直接分析完整个文件
-        // 总之实现过程能转化为一列表即可
-//        throw new NotImplementedException();
-        return tokens;
+        if (tokens != null) {
+            return tokens;
+        }
+
+        if (source == null) {
+            throw new RuntimeException("Source file has not been loaded");
+        }
+        return TokenIterator::new;
     }
 
 
+    /**
+     * 获得分析中遇到的词法错误. 出错的字符被跳过, 分析会继续进行, 因此需要在分析结束后检查此列表
+     * <br>
+     * 按需分析时, 只有 token 流被遍历完之后列表才是完整的
+     *
+     * @return 错误信息, 每个错误一条
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
     public void dumpTokens(String path) {
         FileUtils.writeLines(
             path,
@@ -171,5 +303,37 @@ public class LexicalAnalyzer {
         );
     }
 
+    /**
+     * 按需分析的 Token 迭代器, 在输入结束时补上结束符
+     */
+    private class TokenIterator implements Iterator<Token> {
+        private Token next = null;
+        private boolean eofReturned = false;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !eofReturned) {
+                final var code = nextToken();
+                if (code == END) {
+                    next = table.simpleToken(TokenKind.eof().getCode());
+                    eofReturned = true;
+                } else {
+                    next = tokenOf(code);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Token next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final var result = next;
+            next = null;
+            return result;
+        }
+    }
 
 }
@@ -0,0 +1,90 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射的字节输入
+ * <br>
+ * 源语言只由 ASCII 字母, 数字, 空白与标点组成, 所以可以跳过字符解码, 直接按字节扫描映射进来的文件,
+ * 整个过程不会构造中间的 String 或 char[]. 非 ASCII 的字节会被当作非法字符交给词法分析器处理.
+ * <br>
+ * 词素的文本只有在 {@link #lexeme()} 被调用时才从映射区中拷贝出来.
+ */
+final class MappedSource implements CharSource {
+    /**
+     * 映射一个源文件
+     *
+     * @param path 文件路径
+     * @return 指向文件开头的输入源
+     */
+    static MappedSource open(String path) {
+        try (final var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("Source file is too large to be mapped: " + path);
+            }
+
+            // 映射在 channel 关闭之后依然有效
+            return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
+    @Override
+    public int peek() {
+        return position < limit ? buffer.get(position) & 0xFF : -1;
+    }
+
+    @Override
+    public void advance() {
+        position++;
+    }
+
+    @Override
+    public void mark() {
+        mark = position;
+    }
+
+    @Override
+    public int markedOffset() {
+        return mark;
+    }
+
+    @Override
+    public int consumed() {
+        return position - mark;
+    }
+
+    @Override
+    public void reset(int length) {
+        position = mark + length;
+    }
+
+    @Override
+    public String lexeme() {
+        final var bytes = new byte[position - mark];
+        buffer.get(mark, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() {
+        // 映射区由 GC 回收, 无需手动释放
+    }
+
+    private MappedSource(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private int position = 0;
+    private int mark = 0;
+}
@@ -0,0 +1,143 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 词法分析用的定长输入窗口
+ * <br>
+ * 源文件通过 {@link FileChannel} 按需解码进一个固定大小的字符窗口, 窗口中的字符被消耗完后才读入下一段.
+ * 因此无论源文件多大, 词法分析器占用的输入缓冲区大小都只取决于窗口大小.
+ * <br>
+ * 读入下一段时, 从 mark 开始的未完成词素会被搬到窗口开头保留下来; 只有单个词素比整个窗口还长时窗口才会扩大.
+ */
+final class SourceWindow implements CharSource {
+    /**
+     * 打开一个源文件
+     *
+     * @param path       文件路径
+     * @param windowSize 窗口大小 (字符数)
+     * @return 指向文件开头的窗口
+     */
+    static SourceWindow open(String path, int windowSize) {
+        try {
+            final var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            final var reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1);
+            return new SourceWindow(reader, windowSize);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
+    @Override
+    public int peek() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+
+        return window[position];
+    }
+
+    @Override
+    public void advance() {
+        position++;
+    }
+
+    @Override
+    public void mark() {
+        mark = position;
+    }
+
+    @Override
+    public int markedOffset() {
+        return discarded + mark;
+    }
+
+    @Override
+    public int consumed() {
+        return position - mark;
+    }
+
+    @Override
+    public void reset(int length) {
+        position = mark + length;
+    }
+
+    @Override
+    public String lexeme() {
+        final var text = new String(window, mark, position - mark);
+        // 词素已被取出, 不再需要保留
+        mark = -1;
+        return text;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on source window", e);
+        }
+    }
+
+    /**
+     * 窗口中的字符已被消耗完, 从输入中读入下一段
+     *
+     * @return 是否读到了新的字符
+     */
+    private boolean fill() {
+        if (exhausted) {
+            return false;
+        }
+
+        // 保留 mark 之后还没有取出的词素
+        final var keep = mark >= 0 ? mark : position;
+        if (keep > 0) {
+            System.arraycopy(window, keep, window, 0, limit - keep);
+            discarded += keep;
+            position -= keep;
+            limit -= keep;
+            if (mark >= 0) {
+                mark -= keep;
+            }
+        } else if (limit == window.length) {
+            // 词素占满了整个窗口, 只能扩大窗口
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+
+        try {
+            final var count = reader.read(window, limit, window.length - limit);
+            if (count < 0) {
+                exhausted = true;
+                close();
+                return false;
+            }
+
+            limit += count;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on source window", e);
+        }
+    }
+
+    private SourceWindow(Reader reader, int windowSize) {
+        this.reader = reader;
+        this.window = new char[windowSize];
+    }
+
+    private final Reader reader;
+    private char[] window;
+    // 当前位置, 窗口中有效字符的末尾, 词素开头 (没有未取出的词素时为 -1)
+    private int position = 0;
+    private int limit = 0;
+    private int mark = -1;
+    // 已经移出窗口的字符数
+    private int discarded = 0;
+    private boolean exhausted = false;
+}
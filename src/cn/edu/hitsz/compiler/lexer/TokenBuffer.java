@@ -0,0 +1,192 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 紧凑的词法单元存储
+ * <br>
+ * 与 {@code List<Token>} 每个词法单元一个对象不同, 这里按列存储: 类型的码点, 文本编号与在源文件中的偏移量各占一个 int 数组.
+ * 标识符的文本编号就是它在 {@link IdentifierTrie} 中的结点, 0 表示没有文本 (标点, 关键字与 EOF);
+ * 整数字面量不在字典树中, 其词法单元按出现顺序放在单独的列表里, 文本编号为 -(下标 + 1).
+ * 因此每个词法单元只占 12 字节, 且顺序遍历时是连续的内存访问.
+ * <br>
+ * 需要 Token 对象时, 同一类型同一文本的词法单元总是返回同一个缓存好的对象, 遍历本身不会分配内存.
+ */
+public final class TokenBuffer implements Iterable<Token> {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    TokenBuffer(LexTable table, IdentifierTrie trie) {
+        this.table = table;
+        this.trie = trie;
+    }
+
+    /**
+     * 在末尾追加一个词法单元
+     *
+     * @param code   类型的码点
+     * @param text   文本编号, 没有文本时为 0
+     * @param offset 在源文件中的偏移量
+     */
+    void add(int code, int text, int offset) {
+        append(code, text, offset);
+    }
+
+    /**
+     * 在末尾追加一个整数字面量
+     *
+     * @param literal 字面量对应的词法单元
+     * @param offset  在源文件中的偏移量
+     */
+    void addLiteral(Token literal, int offset) {
+        literals.add(literal);
+        append(literal.getKind().getCode(), -literals.size(), offset);
+    }
+
+    private void append(int code, int text, int offset) {
+        if (size == codes.length) {
+            final var capacity = size * 2;
+            codes = Arrays.copyOf(codes, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+
+        codes[size] = code;
+        texts[size] = text;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * @return 词法单元的个数 (包括末尾的 EOF)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 下标
+     * @return 该词法单元类型的码点
+     */
+    public int code(int index) {
+        return codes[index];
+    }
+
+    /**
+     * @param index 下标
+     * @return 该词法单元的类型
+     */
+    public TokenKind kind(int index) {
+        return table.kind(codes[index]);
+    }
+
+    /**
+     * @param index 下标
+     * @return 该词法单元的文本, 可能为空字符串
+     */
+    public String text(int index) {
+        final var text = texts[index];
+        if (text < 0) {
+            return literals.get(-text - 1).getText();
+        }
+        return text == 0 ? "" : trie.text(text);
+    }
+
+    /**
+     * @param index 下标
+     * @return 该词法单元在源文件中的偏移量 (字符数)
+     */
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index 下标
+     * @return 该词法单元的规范化对象
+     */
+    public Token token(int index) {
+        final var text = texts[index];
+        if (text < 0) {
+            return literals.get(-text - 1);
+        }
+        return text == 0 ? table.simpleToken(codes[index]) : trie.token(text, kind(index));
+    }
+
+    /**
+     * @return 指向第一个词法单元之前的游标
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        final var cursor = cursor();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.index + 1 < size;
+            }
+
+            @Override
+            public Token next() {
+                if (!cursor.advance()) {
+                    throw new NoSuchElementException();
+                }
+                return cursor.token();
+            }
+        };
+    }
+
+    /**
+     * 紧凑存储上的游标, 只记录当前下标
+     */
+    public final class Cursor implements TokenCursor {
+        private int index = -1;
+
+        @Override
+        public boolean advance() {
+            if (index + 1 >= size) {
+                return false;
+            }
+
+            index++;
+            return true;
+        }
+
+        @Override
+        public int code() {
+            return codes[index];
+        }
+
+        @Override
+        public Token token() {
+            return TokenBuffer.this.token(index);
+        }
+
+        /**
+         * @return 当前词法单元的文本
+         */
+        public String text() {
+            return TokenBuffer.this.text(index);
+        }
+
+        /**
+         * @return 当前词法单元在源文件中的偏移量
+         */
+        public int offset() {
+            return offsets[index];
+        }
+    }
+
+    private final LexTable table;
+    private final IdentifierTrie trie;
+
+    private int[] codes = new int[INITIAL_CAPACITY];
+    private int[] texts = new int[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private final ArrayList<Token> literals = new ArrayList<>();
+}
@@ -0,0 +1,63 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.Iterator;
+
+/**
+ * 词法单元流上的游标
+ * <br>
+ * 游标本身就代表 "当前的词法单元", 每次 advance 只移动游标而不产生新对象, 语法分析器可以借此在不分配内存的情况下驱动分析过程.
+ * 需要 Token 对象 (比如通知观察者) 时, {@link #token()} 返回的也是缓存好的规范化对象.
+ *
+ * @see TokenBuffer.Cursor 紧凑 token 存储上的游标
+ */
+public interface TokenCursor {
+    /**
+     * 移动到下一个词法单元
+     *
+     * @return 是否还有词法单元
+     */
+    boolean advance();
+
+    /**
+     * @return 当前词法单元类型的码点
+     */
+    int code();
+
+    /**
+     * @return 当前词法单元
+     */
+    Token token();
+
+    /**
+     * 为任意的词法单元序列构造游标. 若序列本身就是 {@link TokenBuffer}, 则直接使用其游标
+     *
+     * @param tokens 词法单元序列
+     * @return 指向序列开头之前的游标
+     */
+    static TokenCursor of(Iterable<Token> tokens) {
+        if (tokens instanceof TokenBuffer buffer) {
+            return buffer.cursor();
+        }
+
+        final Iterator<Token> iterator = tokens.iterator();
+        return new TokenCursor() {
+            private Token current = null;
+
+            @Override
+            public boolean advance() {
+                current = iterator.hasNext() ? iterator.next() : null;
+                return current != null;
+            }
+
+            @Override
+            public int code() {
+                return current.getKind().getCode();
+            }
+
+            @Override
+            public Token token() {
+                return current;
+            }
+        };
+    }
+}
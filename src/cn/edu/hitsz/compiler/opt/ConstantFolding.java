@@ -0,0 +1,137 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 常量折叠与常量传播
+ * <br>
+ * 自前向后扫描一遍, 记录当前值已知为常量的变量: 操作数中的这些变量替换为立即数, 两个操作数都是立即数的运算在编译期算出.
+ * 值为常量的临时变量的定义随之删去 (它之后的每次使用都已被替换), 源语言变量的定义则保留为一条 MOV.
+ * <br>
+ * 同时化简代数恒等式: x*1, x+0, x-0 化为 MOV, x*0, x-x 化为常量 0. 加法与乘法中的立即数统一放在右边, 便于生成 addi.
+ * <br>
+ * 算术按 32 位补码回绕, 与 IREmulator 及目标机器一致.
+ */
+public final class ConstantFolding implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        final var constants = new HashMap<IRVariable, IRImmediate>();
+        final var optimized = new ArrayList<Instruction>(instructions.size());
+
+        for (final var instruction : instructions) {
+            final var kind = instruction.getKind();
+            switch (kind) {
+                case RET -> {
+                    final var value = substitute(instruction.getReturnValue(), constants);
+                    optimized.add(value == instruction.getReturnValue() ? instruction : Instruction.createRet(value));
+                }
+
+                case MOV -> define(instruction.getResult(), substitute(instruction.getFrom(), constants),
+                    instruction, constants, optimized);
+
+                case ADD, SUB, MUL -> {
+                    final var lhs = substitute(instruction.getLHS(), constants);
+                    final var rhs = substitute(instruction.getRHS(), constants);
+                    final var folded = fold(kind, lhs, rhs);
+                    if (folded != null) {
+                        define(instruction.getResult(), folded, null, constants, optimized);
+                    } else {
+                        constants.remove(instruction.getResult());
+                        optimized.add(rebuild(instruction, lhs, rhs));
+                    }
+                }
+
+                default -> throw new RuntimeException("Unknown instruction kind: " + kind);
+            }
+        }
+
+        return optimized;
+    }
+
+    /**
+     * 把 result 定义为 value: 常量记录下来 (临时变量不再输出定义), 否则输出一条 MOV
+     *
+     * @param original 原本就是 {@code MOV result, value} 时为该指令, 可以直接复用
+     */
+    private static void define(IRVariable result, IRValue value, Instruction original,
+                               Map<IRVariable, IRImmediate> constants, List<Instruction> optimized) {
+        if (value instanceof IRImmediate immediate) {
+            constants.put(result, immediate);
+            if (result.isTemp()) {
+                return;
+            }
+        } else {
+            constants.remove(result);
+        }
+
+        final var reusable = original != null && original.getFrom() == value;
+        optimized.add(reusable ? original : Instruction.createMov(result, value));
+    }
+
+    /**
+     * @return 折叠或化简后的值; 不能化简时为 null
+     */
+    private static IRValue fold(InstructionKind kind, IRValue lhs, IRValue rhs) {
+        if (lhs instanceof IRImmediate l && rhs instanceof IRImmediate r) {
+            return IRImmediate.of(switch (kind) {
+                case ADD -> l.getValue() + r.getValue();
+                case SUB -> l.getValue() - r.getValue();
+                case MUL -> l.getValue() * r.getValue();
+                default -> throw new RuntimeException("Not an arithmetic instruction: " + kind);
+            });
+        }
+
+        return switch (kind) {
+            case ADD -> isConstant(lhs, 0) ? rhs : isConstant(rhs, 0) ? lhs : null;
+            case SUB -> isConstant(rhs, 0) ? lhs : lhs.equals(rhs) ? IRImmediate.of(0) : null;
+            case MUL -> isConstant(lhs, 0) || isConstant(rhs, 0) ? IRImmediate.of(0)
+                : isConstant(lhs, 1) ? rhs : isConstant(rhs, 1) ? lhs : null;
+            default -> null;
+        };
+    }
+
+    private static Instruction rebuild(Instruction instruction, IRValue lhs, IRValue rhs) {
+        final var kind = instruction.getKind();
+        final var result = instruction.getResult();
+
+        // 可交换的运算把立即数换到右边
+        if (kind != InstructionKind.SUB && lhs instanceof IRImmediate) {
+            final var swap = lhs;
+            lhs = rhs;
+            rhs = swap;
+        }
+        if (lhs == instruction.getLHS() && rhs == instruction.getRHS()) {
+            return instruction;
+        }
+
+        return switch (kind) {
+            case ADD -> Instruction.createAdd(result, lhs, rhs);
+            case SUB -> Instruction.createSub(result, lhs, rhs);
+            case MUL -> Instruction.createMul(result, lhs, rhs);
+            default -> throw new RuntimeException("Not an arithmetic instruction: " + kind);
+        };
+    }
+
+    private static IRValue substitute(IRValue value, Map<IRVariable, IRImmediate> constants) {
+        if (value instanceof IRVariable variable) {
+            final var constant = constants.get(variable);
+            if (constant != null) {
+                return constant;
+            }
+        }
+        return value;
+    }
+
+    private static boolean isConstant(IRValue value, int constant) {
+        return value instanceof IRImmediate immediate && immediate.getValue() == constant;
+    }
+}
@@ -0,0 +1,101 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 复制传播
+ * <br>
+ * IRGenerator 对每个 {@code id = E} 先把 E 算到一个临时变量中, 再 MOV 给 id. 这里分两步消去这类复制:
+ * <ol>
+ *     <li>合并: 临时变量的定义后紧跟着 {@code MOV x, $n}, 且 $n 只在这条 MOV 中被使用时, 直接把结果定义到 x 上, 删去 MOV</li>
+ *     <li>传播: 余下的 {@code MOV x, y} 之后, 对 x 的使用改为使用 y, 直到 x 或 y 被重新赋值. MOV 本身留给死代码删除判断是否还需要</li>
+ * </ol>
+ */
+public final class CopyPropagation implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        return propagate(coalesce(instructions));
+    }
+
+    private static List<Instruction> coalesce(List<Instruction> instructions) {
+        // 各临时变量作为参数出现的次数
+        final var uses = new HashMap<IRVariable, Integer>();
+        for (final var instruction : instructions) {
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable && variable.isTemp()) {
+                    uses.merge(variable, 1, Integer::sum);
+                }
+            }
+        }
+
+        final var coalesced = new ArrayList<Instruction>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++) {
+            final var instruction = instructions.get(i);
+            if (i + 1 < instructions.size() && instruction.getKind() != InstructionKind.RET) {
+                final var temp = instruction.getResult();
+                final var next = instructions.get(i + 1);
+                if (temp.isTemp() && uses.getOrDefault(temp, 0) == 1
+                    && next.getKind() == InstructionKind.MOV && temp.equals(next.getFrom())) {
+                    coalesced.add(instruction.rewrite(next.getResult(), instruction.getOperands()));
+                    i++;
+                    continue;
+                }
+            }
+            coalesced.add(instruction);
+        }
+        return coalesced;
+    }
+
+    private static List<Instruction> propagate(List<Instruction> instructions) {
+        // copies: x -> y 表示 x 当前的值与 y 相同; copiedFrom: y -> 复制自 y 的变量, y 被重新赋值时它们都要失效
+        final var copies = new HashMap<IRVariable, IRVariable>();
+        final var copiedFrom = new HashMap<IRVariable, List<IRVariable>>();
+
+        final var propagated = new ArrayList<Instruction>(instructions.size());
+        for (final var instruction : instructions) {
+            final var operands = new ArrayList<IRValue>(instruction.getOperands().size());
+            for (final var operand : instruction.getOperands()) {
+                operands.add(operand instanceof IRVariable variable ? copies.getOrDefault(variable, variable) : operand);
+            }
+
+            final var result = instruction.getKind() == InstructionKind.RET ? null : instruction.getResult();
+            if (result != null) {
+                // 自己复制给自己的 MOV 不改变任何值
+                if (instruction.getKind() == InstructionKind.MOV && result.equals(operands.get(0))) {
+                    continue;
+                }
+
+                kill(result, copies, copiedFrom);
+                if (instruction.getKind() == InstructionKind.MOV && operands.get(0) instanceof IRVariable source) {
+                    copies.put(result, source);
+                    copiedFrom.computeIfAbsent(source, key -> new ArrayList<>()).add(result);
+                }
+            }
+            propagated.add(instruction.rewrite(result, operands));
+        }
+        return propagated;
+    }
+
+    /**
+     * variable 被重新赋值: 它不再是其他变量的复制, 复制自它的变量也不再与它相同
+     */
+    private static void kill(IRVariable variable, Map<IRVariable, IRVariable> copies,
+                             Map<IRVariable, List<IRVariable>> copiedFrom) {
+        copies.remove(variable);
+        final var dependents = copiedFrom.remove(variable);
+        if (dependents != null) {
+            for (final var dependent : dependents) {
+                // dependent 之后可能已被重新赋值为其他变量的复制
+                copies.remove(dependent, variable);
+            }
+        }
+    }
+}
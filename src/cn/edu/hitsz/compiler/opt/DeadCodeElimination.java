@@ -0,0 +1,43 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 基于活跃变量分析的死代码删除
+ * <br>
+ * 自后向前扫描一遍, 维护当前位置之后还会被读取的变量集合. 结果不在该集合中的赋值对返回值没有影响, 直接删去;
+ * 保留的指令则把结果移出集合, 把参数加入集合. RET 总是保留.
+ */
+public final class DeadCodeElimination implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        final var live = new HashSet<IRVariable>();
+        final var kept = new ArrayList<Instruction>(instructions.size());
+
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            final var instruction = instructions.get(i);
+            if (instruction.getKind() != InstructionKind.RET) {
+                if (!live.remove(instruction.getResult())) {
+                    continue;
+                }
+            }
+
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    live.add(variable);
+                }
+            }
+            kept.add(instruction);
+        }
+
+        Collections.reverse(kept);
+        return kept;
+    }
+}
@@ -0,0 +1,46 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.util.List;
+
+/**
+ * IR 上的一趟优化
+ * <br>
+ * 优化位于 IR 生成与汇编生成之间, 输入与输出都是直线型的 IR 序列. 优化不改变 RET 返回的值,
+ * 也不修改传入的列表, 而是返回新的列表.
+ * <br>
+ * 优化可以带有状态 (如 {@link ValueNumbering}), 因此一个对象只应由一个线程使用, 同时进行的多次编译各自构造自己的优化.
+ */
+public interface IRPass {
+    /**
+     * @param instructions 优化前的 IR
+     * @return 优化后的 IR
+     */
+    List<Instruction> run(List<Instruction> instructions);
+
+    /**
+     * @param next 之后执行的优化
+     * @return 先执行本优化, 再对其结果执行 next 的优化
+     */
+    default IRPass andThen(IRPass next) {
+        return instructions -> next.run(run(instructions));
+    }
+
+    /**
+     * @return 不做任何优化, 原样返回 IR 的副本
+     */
+    static IRPass none() {
+        return List::copyOf;
+    }
+
+    /**
+     * @return Main 与 CompilerPipeline 开启优化时所用的优化: 常量折叠, 值编号, 复制传播, 最后删去死代码
+     */
+    static IRPass standard() {
+        return new ConstantFolding()
+            .andThen(new ValueNumbering())
+            .andThen(new CopyPropagation())
+            .andThen(new DeadCodeElimination());
+    }
+}
@@ -0,0 +1,172 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 局部值编号 (公共子表达式删除)
+ * <br>
+ * 给每个值一个编号: 立即数按数值, 变量按它当前保存的值, 运算按 (种类, 两个参数的编号), ADD 与 MUL 的两个参数不分先后.
+ * 遇到编号相同的运算时, 若该值还保存在某个变量中就不再重复计算:
+ * 结果是临时变量时删去该指令, 之后对它的使用改为使用已保存该值的临时变量; 否则改为一条 MOV.
+ * <br>
+ * 既可以作为一趟优化处理整段 IR ({@link #run(List)}), 也可以在 IRGenerator 生成指令的同时逐条处理
+ * ({@link #append(Instruction, List)}). 一个对象的状态只对应一段 IR, 两种用法不要混用.
+ * <br>
+ * 这里假定临时变量只被赋值一次, 这正是 IRGenerator 生成的 IR 的形式.
+ */
+public final class ValueNumbering implements IRPass {
+    /**
+     * 对整段 IR 做值编号, 每次调用都从空表开始
+     */
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        numbers.clear();
+        constantNumbers.clear();
+        expressions.clear();
+        holders.clear();
+        aliases.clear();
+        eliminated = 0;
+
+        final var optimized = new ArrayList<Instruction>(instructions.size());
+        for (final var instruction : instructions) {
+            append(instruction, optimized);
+        }
+        return optimized;
+    }
+
+    /**
+     * 处理一条新生成的指令
+     *
+     * @param instruction 新生成的指令
+     * @param output      需要保留的指令 (参数可能被改写) 加到它的末尾
+     * @return 之后应当用来代替该指令结果的变量: 结果是临时变量时它总是临时变量. RET 指令返回 null
+     */
+    public IRVariable append(Instruction instruction, List<Instruction> output) {
+        final var kind = instruction.getKind();
+        final var operands = new ArrayList<IRValue>(instruction.getOperands().size());
+        for (final var operand : instruction.getOperands()) {
+            operands.add(operand instanceof IRVariable variable ? aliases.getOrDefault(variable, variable) : operand);
+        }
+
+        if (kind == InstructionKind.RET) {
+            output.add(instruction.rewrite(null, operands));
+            return null;
+        }
+
+        final var result = instruction.getResult();
+        final int number;
+        if (kind == InstructionKind.MOV) {
+            number = numberOf(operands.get(0));
+        } else {
+            var lhs = numberOf(operands.get(0));
+            var rhs = numberOf(operands.get(1));
+            if (kind != InstructionKind.SUB && lhs > rhs) {
+                final var swap = lhs;
+                lhs = rhs;
+                rhs = swap;
+            }
+
+            final var expression = new Expression(kind, lhs, rhs);
+            final var known = expressions.get(expression);
+            final var holder = known == null ? null : holderOf(known);
+            if (holder != null) {
+                if (result.isTemp() && holder.isTemp()) {
+                    aliases.put(result, holder);
+                    eliminated++;
+                    return holder;
+                }
+                // 结果是源语言变量, 或该值只保存在源语言变量中 (它之后可能被重新赋值), 改为复制
+                return copy(result, holder, known, output);
+            }
+
+            if (known != null) {
+                number = known;
+            } else {
+                number = nextNumber++;
+                expressions.put(expression, number);
+            }
+        }
+
+        // 结果已经保存着这个值 (如重复的 x = y), 不必再赋值
+        if (Integer.valueOf(number).equals(numbers.get(result))) {
+            eliminated++;
+            return result;
+        }
+        assign(result, number);
+        output.add(instruction.rewrite(result, operands));
+        return result;
+    }
+
+    /**
+     * @return 被删去的指令的个数
+     */
+    public int getEliminatedCount() {
+        return eliminated;
+    }
+
+    /**
+     * 把 holder 的值 (编号为 number) 复制给 result; result 已经保存着该值时什么也不输出
+     */
+    private IRVariable copy(IRVariable result, IRVariable holder, int number, List<Instruction> output) {
+        if (Integer.valueOf(number).equals(numbers.get(result))) {
+            eliminated++;
+            return result;
+        }
+        assign(result, number);
+        output.add(Instruction.createMov(result, holder));
+        return result;
+    }
+
+    private void assign(IRVariable variable, int number) {
+        numbers.put(variable, number);
+        // 临时变量不会再被赋值, 优先让它保存该值
+        final var holder = holderOf(number);
+        if (holder == null || holder.isNamed() && variable.isTemp()) {
+            holders.put(number, variable);
+        }
+    }
+
+    /**
+     * @return 当前仍保存着该编号的值的变量; 没有时为 null
+     */
+    private IRVariable holderOf(int number) {
+        final var holder = holders.get(number);
+        return holder != null && Integer.valueOf(number).equals(numbers.get(holder)) ? holder : null;
+    }
+
+    private int numberOf(IRValue value) {
+        if (value instanceof IRImmediate immediate) {
+            return constantNumbers.computeIfAbsent(immediate.getValue(), key -> nextNumber++);
+        }
+        // 未赋值就读取的变量也给一个编号, 它之后被读取时值不变
+        final var variable = (IRVariable) value;
+        final var number = numbers.get(variable);
+        if (number != null) {
+            return number;
+        }
+        final var fresh = nextNumber++;
+        assign(variable, fresh);
+        return fresh;
+    }
+
+    private record Expression(InstructionKind kind, int lhs, int rhs) {
+    }
+
+    private final Map<IRVariable, Integer> numbers = new HashMap<>();
+    private final Map<Integer, Integer> constantNumbers = new HashMap<>();
+    private final Map<Expression, Integer> expressions = new HashMap<>();
+    private final Map<Integer, IRVariable> holders = new HashMap<>();
+    // 被删去定义的临时变量 -> 保存着同一个值的临时变量
+    private final Map<IRVariable, IRVariable> aliases = new HashMap<>();
+    private int nextNumber = 0;
+    private int eliminated = 0;
+}
@@ -0,0 +1,40 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+
+/**
+ * 读取驱动程序共享的符号栈的观察者
+ * <br>
+ * {@link ActionObserver} 的观察者需要各自维护自己的栈. 实现此接口的观察者则在 shift/reduce 时收到 {@link ParseContext},
+ * 可以按位置读取驱动程序维护的 {@link ParseStack} 中移入的词法单元, 文法符号的属性由观察者自己按位置存放在数组中.
+ * <br>
+ * 驱动程序仍然按 {@link ActionObserver} 的约定通知所有观察者, 之后再以上下文通知实现了此接口的观察者.
+ * 因此这里把以状态与词法单元 (产生式) 为参数的两个方法实现为空, 观察者只需实现以上下文为参数的版本.
+ */
+public interface ContextObserver extends ActionObserver {
+    /**
+     * 当驱动程序执行 Shift 动作时会调用此函数, 被移入的词法单元将位于 {@code context.slot()}.
+     * 上下文对象会被驱动程序复用, 不应在调用之外保存它.
+     *
+     * @param context 分析上下文
+     */
+    void whenShift(ParseContext context);
+
+    /**
+     * 当驱动程序执行 Reduce 动作时会调用此函数, 产生式体的第 i 个符号位于 {@code context.slot(i)},
+     * 规约后产生式头位于 {@code context.slot()}. 上下文对象会被驱动程序复用, 不应在调用之外保存它.
+     *
+     * @param context 分析上下文
+     */
+    void whenReduce(ParseContext context);
+
+    @Override
+    default void whenShift(Status currentStatus, Token currentToken) {
+    }
+
+    @Override
+    default void whenReduce(Status currentStatus, Production production) {
+    }
+}
@@ -1,11 +1,13 @@
 package cn.edu.hitsz.compiler.parser;
 
+import cn.edu.hitsz.compiler.ir.IRContext;
 import cn.edu.hitsz.compiler.ir.IRImmediate;
 import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
 import cn.edu.hitsz.compiler.lexer.Token;
-import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.opt.ValueNumbering;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 import cn.edu.hitsz.compiler.utils.FileUtils;
@@ -17,149 +19,155 @@ import java.util.*;
 /**
  *
  */
-public class IRGenerator implements ActionObserver {
+public class IRGenerator implements ContextObserver {
 
-    private final Deque<VTSymbol> symbolStack = new ArrayDeque<>();   // 符号栈,和语义分析一样
+    // IR 生成过程中各文法符号的值, 按驱动程序共享的符号栈的位置存放. 存的是值的句柄而不是 IRValue 对象:
+    // 高 32 位是种类, 低 32 位是立即数本身, 临时变量的序号或源语言变量的编号. 终结符与没有值的非终结符为 NONE
+    private static final long NONE = 0;
+    private static final long IMMEDIATE = 1L << 32;
+    private static final long TEMP = 2L << 32;
+    private static final long NAMED = 3L << 32;
 
-    private final Stack<IRValue> irStack = new Stack<>();  // IR生成过程中用的栈 这个值本来可以作为一个字段放到SymbolEntry，但是又会导致前面用到SymbolEntry的太冗余
+    private long[] values = new long[64];
+
+    // 本次编译的临时变量与源语言变量都由上下文分配, 同名变量总是同一个对象
+    private final IRContext irContext;
+
+    // 不为 null 时, 指令在生成的同时做值编号, 已经算过的值不再重复计算
+    private final ValueNumbering valueNumbering;
+
+    public IRGenerator() {
+        this(new IRContext());
+    }
+
+    /**
+     * @param irContext 本次编译所用的 IR 变量命名空间
+     */
+    public IRGenerator(IRContext irContext) {
+        this(irContext, null);
+    }
+
+    /**
+     * @param irContext      本次编译所用的 IR 变量命名空间
+     * @param valueNumbering 生成指令的同时所做的值编号, 为 null 时不做
+     */
+    public IRGenerator(IRContext irContext, ValueNumbering valueNumbering) {
+        this.irContext = irContext;
+        this.valueNumbering = valueNumbering;
+    }
 
     private final List<Instruction> instructions = new ArrayList<>();   // 指令存在这个表
     @Override
-    public void whenShift(Status currentStatus, Token currentToken) {
+    public void whenShift(ParseContext context) {
         // TODO
 //        throw new NotImplementedException();
-        // 移位时，ir生成只需要把token存进来就行
-        symbolStack.push(new VTSymbol(currentToken));
-        irStack.push(null);                       // ir占位 ， 只有规约的时候才会知道ir应该是什么
+        // 移位时，token 已由驱动程序放进符号栈，ir 只需要占位，只有规约的时候才会知道ir应该是什么
+        ensureCapacity(context.slot());
+        values[context.slot()] = NONE;
 
     }
 
 
     @Override
-    public void whenReduce(Status currentStatus, Production production) {
+    public void whenReduce(ParseContext context) {
         // TODO
 //        throw new NotImplementedException();
-        switch (production.index()) {
-            case 15 -> {
-//                B -> IntConst; 值出现 此情况弹出栈顶，将数字值压回 数字值从token获取
-                Token token = symbolStack.pop().getToken();
-                IRImmediate immediate = IRImmediate.of(Integer.parseInt(token.getText()));   //用token作为数字，构建ir立即数
-                irStack.pop();
-                irStack.push(immediate);  // 把栈顶占位的弹了，压回ir数字
-
-                symbolStack.push(new VTSymbol(production.head()));
-
-            }
-            case 14 -> {
-//                B -> id;  只需要把id的名字传给B
-                Token token = symbolStack.pop().getToken();  //弹出栈顶，得到的是id
-                IRVariable variable = IRVariable.named(token.getText());
-                irStack.pop();
-                irStack.push(variable);  // 结构和产生式15基本一样
-
-                symbolStack.push(new VTSymbol(production.head()));
-            }
-            case 13 -> {
-//                B -> ( E );  和14、15基本一样，但是E 不一定是IRImmediate或者IRVariable，就用IRValue,弹栈要弹出3个
-                symbolStack.pop();symbolStack.pop();symbolStack.pop();  // 符号栈没有含义，只负责占位置，弹3个
-                irStack.pop();
-                IRValue value = irStack.pop();   // 第二个其实就是E的值，E.value要存下来，待会压回去作为B.value
-                irStack.pop();
-                irStack.push(value);
-
-                symbolStack.push(new VTSymbol(production.head()));
-
-            }
-            case 10, 12 -> {
-//                E -> A; A -> B;  一个的值传给另一个，比13还基础的情况
-                symbolStack.pop();  //符号栈没有含义
-                IRValue value = irStack.pop();
-                irStack.push(value);            //弹出一个右部值，压回去作为左部值
-
-                symbolStack.push(new VTSymbol(production.head()));
-            }
-            case 11 -> {
-//                A -> A * B;
-                symbolStack.pop();symbolStack.pop();symbolStack.pop();  //三个符号可以全部弹出。 第二个弹出的肯定是token *
-                IRValue bValue = irStack.pop();  // B.value
-                irStack.pop();        // 这个是 *
-                IRValue aValue = irStack.pop();   // A.value
-                IRVariable newValue = IRVariable.temp();
-                irStack.push(newValue);  //压入栈中
-
-                instructions.add(Instruction.createMul(newValue, aValue, bValue));  // 创建指令，并加入指令表
-
-                symbolStack.push(new VTSymbol(production.head()));
-            }
-            case 9 -> {
-                // 算术运算都跟11 类似   E -> E - A;
-                symbolStack.pop();symbolStack.pop();symbolStack.pop();  //三个符号可以全部弹出。 第二个弹出的肯定是token *
-                IRValue aValue = irStack.pop();  // A.value
-                irStack.pop();        // 这个是 -
-                IRValue eValue = irStack.pop();   // 右部E.value
-                IRVariable newValue = IRVariable.temp();
-                irStack.push(newValue);  //压入栈中
-
-                instructions.add(Instruction.createSub(newValue, eValue, aValue));
-
-                symbolStack.push(new VTSymbol(production.head()));
-
-            }
-            case 8 -> {
-//                E -> E + A;
-                symbolStack.pop();symbolStack.pop();symbolStack.pop();  //三个符号可以全部弹出。 第二个弹出的肯定是token *
-                IRValue aValue = irStack.pop();  // A.value
-                irStack.pop();        // 这个是 +
-                IRValue eValue = irStack.pop();   // 右部E.value
-                IRVariable newValue = IRVariable.temp();
-                irStack.push(newValue);  //压入栈中
-
-                instructions.add(Instruction.createAdd(newValue, eValue, aValue));
-
-                symbolStack.push(new VTSymbol(production.head()));
-            }
-
-            case 6 -> {
-//                S -> id = E;
-                symbolStack.pop();  // pop E
-                symbolStack.pop();  // pop =
-                Token token = symbolStack.pop().getToken();
-                IRValue eValue = irStack.pop(); //ir栈第一次弹出是E.value
-                irStack.pop(); //第二次弹出是=
-                irStack.pop(); // 第三次弹出的是id占位用的
-
-                IRVariable variable = IRVariable.named(token.getText());  //通过token获得variable的名
-                instructions.add(Instruction.createMov(variable, eValue));  //构造赋值指令
-
-                irStack.push(null);  // S只需要占位置
-
-                symbolStack.push(new VTSymbol(production.head()));
-            }
-            case 7 -> {
-//                S -> return E;
-                symbolStack.pop();symbolStack.pop();  //符号栈无含义，直接弹出2个
-
-                IRValue value = irStack.pop();
-                irStack.pop();
-                irStack.push(null);
-
-                instructions.add(Instruction.createRet(value));
-
-                symbolStack.push(new VTSymbol(production.head()));
-
-            }
-            default -> {
-                // 对于没有定义翻译过程的指令，只需要跟着语法分析过程走就行，做好栈的维护
-                for (int i = 0; i < production.body().size(); i++) {
-                    symbolStack.pop();
-                    irStack.pop();
-                }
-                irStack.push(null);
-                symbolStack.push(new VTSymbol(production.head()));
-
-            }
+        // 产生式体的第 i 个符号位于 context.slot(i), 产生式头的值写到 context.slot() 上
+        ensureCapacity(context.slot());
+        Actions.TABLE.reduce(this, context);
+    }
+
+    // 各产生式的翻译动作按产生式的文本绑定. 第一次规约时才绑定, 所有实例共用一张表, 动作通过传入的生成器读写各自的状态
+    // 对于没有定义翻译过程的产生式，只需要跟着语法分析过程走就行，头没有值
+    private static final class Actions {
+        static final SemanticActionTable<IRGenerator> TABLE = new SemanticActionTable<IRGenerator>(
+            (gen, context) -> gen.values[context.slot()] = NONE)
+            .on("B -> IntConst", (gen, context) -> {
+                // 值出现 数字值从token获取，立即数直接存在句柄里，到生成指令时才构建ir立即数
+                Token token = context.token(0);
+                gen.values[context.slot()] = IMMEDIATE | Integer.parseInt(token.getText()) & 0xFFFFFFFFL;
+            })
+            .on("B -> id", (gen, context) -> {
+                // 只需要把id的名字传给B
+                Token token = context.token(0);
+                gen.values[context.slot()] = gen.named(token.getText());
+            })
+            // E 不一定是IRImmediate或者IRVariable，句柄原样传递
+            .on("B -> ( E )", (gen, context) -> gen.values[context.slot()] = gen.values[context.slot(1)])
+            // 一个的值传给另一个，头和体的唯一符号在同一个位置
+            .on("E -> A", (gen, context) -> gen.values[context.slot()] = gen.values[context.slot(0)])
+            .on("A -> B", (gen, context) -> gen.values[context.slot()] = gen.values[context.slot(0)])
+            .on("A -> A * B", (gen, context) -> {
+                IRValue aValue = gen.valueOf(gen.values[context.slot(0)]);   // A.value
+                IRValue bValue = gen.valueOf(gen.values[context.slot(2)]);   // B.value
+                IRVariable newValue = gen.newTemp();
+                gen.values[context.slot()] = TEMP | gen.emit(Instruction.createMul(newValue, aValue, bValue)).getOrdinal();  // 创建指令，并加入指令表
+            })
+            .on("E -> E - A", (gen, context) -> {
+                // 算术运算都跟乘法类似
+                IRValue eValue = gen.valueOf(gen.values[context.slot(0)]);   // 右部E.value
+                IRValue aValue = gen.valueOf(gen.values[context.slot(2)]);   // A.value
+                IRVariable newValue = gen.newTemp();
+                gen.values[context.slot()] = TEMP | gen.emit(Instruction.createSub(newValue, eValue, aValue)).getOrdinal();
+            })
+            .on("E -> E + A", (gen, context) -> {
+                IRValue eValue = gen.valueOf(gen.values[context.slot(0)]);   // 右部E.value
+                IRValue aValue = gen.valueOf(gen.values[context.slot(2)]);   // A.value
+                IRVariable newValue = gen.newTemp();
+                gen.values[context.slot()] = TEMP | gen.emit(Instruction.createAdd(newValue, eValue, aValue)).getOrdinal();
+            })
+            .on("S -> id = E", (gen, context) -> {
+                Token token = context.token(0);
+                IRValue eValue = gen.valueOf(gen.values[context.slot(2)]);
+                IRVariable variable = gen.variableNamed(token.getText());  //通过token获得variable的名
+                gen.emit(Instruction.createMov(variable, eValue));  //构造赋值指令
+                gen.values[context.slot()] = NONE;  // S只需要占位置
+            })
+            .on("S -> return E", (gen, context) -> {
+                IRValue value = gen.valueOf(gen.values[context.slot(1)]);
+                gen.emit(Instruction.createRet(value));
+                gen.values[context.slot()] = NONE;
+            });
+    }
+
+    /**
+     * 把新生成的指令加入指令表
+     *
+     * @return 之后代替该指令结果的变量; 做值编号时可能是之前已保存同一个值的临时变量
+     */
+    private IRVariable emit(Instruction instruction) {
+        if (valueNumbering != null) {
+            return valueNumbering.append(instruction, instructions);
+        }
+        instructions.add(instruction);
+        return instruction.getKind() == InstructionKind.RET ? null : instruction.getResult();
+    }
+
+    private IRVariable newTemp() {
+        return irContext.newTemp();
+    }
+
+    private IRVariable variableNamed(String name) {
+        return irContext.named(name);
+    }
 
+    /**
+     * @return 源语言变量的句柄
+     */
+    private long named(String name) {
+        return NAMED | irContext.namedId(name);
+    }
 
+    private IRValue valueOf(long handle) {
+        final var kind = handle & ~0xFFFFFFFFL;
+        if (kind == IMMEDIATE) {
+            return IRImmediate.of((int) handle);
+        } else if (kind == TEMP) {
+            return irContext.temp((int) handle);
+        } else if (kind == NAMED) {
+            return irContext.named((int) handle);
+        } else {
+            throw new RuntimeException("Use of a grammar symbol that has no IR value");
         }
     }
 
@@ -177,12 +185,25 @@ public class IRGenerator implements ActionObserver {
 
     }
 
+    /**
+     * @return 本次编译所用的 IR 变量命名空间
+     */
+    public IRContext getIRContext() {
+        return irContext;
+    }
+
     public List<Instruction> getIR() {
         // TODO
 //        throw new NotImplementedException();
         return instructions;
     }
 
+    private void ensureCapacity(int slot) {
+        if (slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, slot + 1));
+        }
+    }
+
     public void dumpIR(String path) {
         FileUtils.writeLines(path, getIR().stream().map(Instruction::toString).toList());
     }
@@ -0,0 +1,254 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 让各观察者在各自的线程上与语法分析并行执行的观察者
+ * <br>
+ * 该类本身作为一个观察者注册到驱动程序上, 驱动程序通知它时, 它只把 shift/reduce/accept 事件 (状态, 词法单元或产生式)
+ * 写进一个环形缓冲区便立即返回. 每个被包装的观察者各有一个消费线程, 成批地读出事件, 在自己的一份 {@link ParseStack} 副本上
+ * 重放驱动程序对符号栈的维护, 再以同样的 {@link ParseContext} 通知观察者. 因此观察者的代码不需要任何改动, 其看到的事件序列与
+ * 直接注册到驱动程序上时完全相同.
+ * <br>
+ * 生产者与消费者之间只通过序号同步: 生产者写好一格后发布自己的序号, 消费者处理完一批后发布自己的序号, 生产者在追上最慢的消费者一圈时等待.
+ * 驱动程序通知 accept 时, 该类会等待所有消费者处理完毕, 因此 {@link SyntaxAnalyzer#run()} 返回后即可像平常一样读取各观察者的结果.
+ * 若驱动程序因语法错误中途退出, 应调用 {@link #close()} 结束消费线程.
+ * <br>
+ * 注意观察者在其它线程上执行: SemanticAnalyzer 会在消费线程上修改符号表中的条目, 这要求分析期间没有别的线程向符号表中加入新条目.
+ * 先调用 {@code LexicalAnalyzer.run()} 把词法分析做完时满足这一点; 而把惰性的 token 流直接交给语法分析器时, 词法分析会在驱动程序的线程上
+ * 边分析边加入符号, 此时不能使用该类.
+ */
+public final class ObserverPipeline implements ContextObserver, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1 << 12;
+
+    private static final byte SHIFT = 0;
+    private static final byte REDUCE = 1;
+    private static final byte ACCEPT = 2;
+
+    // 等待时先自旋, 再让出 CPU, 最后才挂起一小段时间
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * @param observers 要并行执行的观察者, 每个观察者一个线程
+     */
+    public ObserverPipeline(ActionObserver... observers) {
+        this(DEFAULT_CAPACITY, observers);
+    }
+
+    /**
+     * @param capacity  环形缓冲区的容量, 须为 2 的幂
+     * @param observers 要并行执行的观察者, 每个观察者一个线程
+     */
+    public ObserverPipeline(int capacity, ActionObserver... observers) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new RuntimeException("Capacity of observer pipeline must be a power of 2: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.kinds = new byte[capacity];
+        this.statuses = new Status[capacity];
+        this.tokens = new Token[capacity];
+        this.productions = new Production[capacity];
+
+        this.consumers = new Consumer[observers.length];
+        for (int i = 0; i < observers.length; i++) {
+            consumers[i] = new Consumer(observers[i]);
+        }
+    }
+
+    @Override
+    public void whenShift(ParseContext context) {
+        publish(SHIFT, context.status(), context.token(), null);
+    }
+
+    @Override
+    public void whenReduce(ParseContext context) {
+        publish(REDUCE, context.status(), null, context.production());
+    }
+
+    @Override
+    public void whenAccept(Status currentStatus) {
+        publish(ACCEPT, currentStatus, null, null);
+        close();
+    }
+
+    @Override
+    public void setSymbolTable(SymbolTable table) {
+        for (final var consumer : consumers) {
+            consumer.observer.setSymbolTable(table);
+        }
+    }
+
+    /**
+     * 等待所有消费者处理完已发布的事件并结束消费线程. 若有观察者在处理事件时抛出异常, 在此重新抛出
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (final var consumer : consumers) {
+                if (consumer.thread.isAlive()) {
+                    LockSupport.unpark(consumer.thread);
+                }
+                try {
+                    consumer.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for observer pipeline", e);
+                }
+            }
+        }
+
+        rethrowFailure();
+    }
+
+    //==================== 生产者, 即驱动程序所在的线程 ==============================//
+
+    private void publish(byte kind, Status status, Token token, Production production) {
+        if (closed) {
+            throw new RuntimeException("Observer pipeline is already closed");
+        }
+        if (!started) {
+            started = true;
+            for (final var consumer : consumers) {
+                consumer.thread.start();
+            }
+        }
+
+        final var sequence = next;
+        // 这一格上一圈的事件还有消费者没处理完, 等最慢的消费者跟上
+        if (sequence - capacity > gate) {
+            int tries = 0;
+            while (sequence - capacity > (gate = slowestConsumed())) {
+                rethrowFailure();
+                idle(tries++);
+            }
+        }
+
+        final var index = (int) sequence & mask;
+        kinds[index] = kind;
+        statuses[index] = status;
+        tokens[index] = token;
+        productions[index] = production;
+        published.lazySet(sequence);
+        next = sequence + 1;
+    }
+
+    private long slowestConsumed() {
+        var min = Long.MAX_VALUE;
+        for (final var consumer : consumers) {
+            min = Math.min(min, consumer.consumed.get());
+        }
+        return min;
+    }
+
+    private void rethrowFailure() {
+        final var cause = failure.get();
+        if (cause != null) {
+            throw new RuntimeException("Observer failed in pipeline", cause);
+        }
+    }
+
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (tries < YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    //==================== 消费者, 每个观察者一个线程 ==============================//
+
+    private final class Consumer implements Runnable {
+        private final ActionObserver observer;
+        private final Thread thread;
+        private final AtomicLong consumed = new AtomicLong(-1);
+
+        // 在副本上重放驱动程序对符号栈的维护, 使观察者看到的位置与同步执行时相同
+        private final ParseStack stack = new ParseStack();
+        private final ParseContext context = new ParseContext(stack);
+
+        Consumer(ActionObserver observer) {
+            this.observer = observer;
+            this.thread = new Thread(this, "observer-pipeline-" + observer.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                var sequence = 0L;
+                int tries = 0;
+                while (true) {
+                    final var available = published.get();
+                    if (available < sequence) {
+                        // 先看关闭标志再看序号, 关闭前发布的事件一定能被看到
+                        if (closed && published.get() < sequence) {
+                            return;
+                        }
+                        idle(tries++);
+                        continue;
+                    }
+
+                    for (; sequence <= available; sequence++) {
+                        apply((int) sequence & mask);
+                    }
+                    consumed.lazySet(available);
+                    tries = 0;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                // 不再挡住生产者
+                consumed.set(Long.MAX_VALUE);
+            }
+        }
+
+        private void apply(int index) {
+            switch (kinds[index]) {
+                case SHIFT -> {
+                    final var token = tokens[index];
+                    context.shift(statuses[index], token);
+                    context.notifyShift(observer);
+                    stack.shift(token);
+                }
+                case REDUCE -> {
+                    final var production = productions[index];
+                    context.reduce(statuses[index], production);
+                    context.notifyReduce(observer);
+                    stack.reduce(production.body().size());
+                }
+                case ACCEPT -> observer.whenAccept(statuses[index]);
+                default -> throw new RuntimeException("Unknown event kind: " + kinds[index]);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final byte[] kinds;
+    private final Status[] statuses;
+    private final Token[] tokens;
+    private final Production[] productions;
+
+    private final Consumer[] consumers;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean closed = false;
+
+    // 只由生产者读写
+    private boolean started = false;
+    private long next = 0;
+    private long gate = -1;
+}
@@ -0,0 +1,129 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+
+/**
+ * 驱动程序通知观察者时传入的上下文
+ * <br>
+ * 整个分析过程只有一个上下文对象, 驱动程序在每次 shift/reduce 前就地更新它, 因此观察者不应在回调之外保存它.
+ * <ul>
+ *     <li>shift 时, {@link #slot()} 是被移入的词法单元将要占据的位置</li>
+ *     <li>reduce 时, 产生式体的第 i 个符号位于 {@code slot(i)}, 规约后产生式头占据 {@link #slot()} (即体的第一个符号的位置)</li>
+ * </ul>
+ */
+public final class ParseContext {
+    /**
+     * @return 当前状态
+     */
+    public Status status() {
+        return status;
+    }
+
+    /**
+     * @return shift 时被移入的词法单元
+     */
+    public Token token() {
+        return token;
+    }
+
+    /**
+     * @return reduce 时待规约的产生式
+     */
+    public Production production() {
+        return production;
+    }
+
+    /**
+     * @return shift 时被移入的符号的位置; reduce 时产生式头的位置
+     */
+    public int slot() {
+        return slot;
+    }
+
+    /**
+     * @param index 符号在产生式体中的下标
+     * @return reduce 时产生式体中第 index 个符号的位置
+     */
+    public int slot(int index) {
+        return slot + index;
+    }
+
+    /**
+     * @param index 符号在产生式体中的下标
+     * @return reduce 时产生式体中第 index 个符号的词法单元; 该符号是非终结符时为 null
+     */
+    public Token token(int index) {
+        return stack.token(slot + index);
+    }
+
+    /**
+     * @return 驱动程序维护的符号栈
+     */
+    public ParseStack stack() {
+        return stack;
+    }
+
+    //==================== 以下由驱动程序调用 ==============================//
+
+    ParseContext(ParseStack stack) {
+        this.stack = stack;
+    }
+
+    /**
+     * 按符号栈当前的栈顶准备 shift 的上下文, 供在符号栈副本上重放事件时使用
+     */
+    void shift(Status status, Token token) {
+        shift(status, token, stack.top() + 1);
+    }
+
+    /**
+     * 按符号栈当前的栈顶准备 reduce 的上下文, 供在符号栈副本上重放事件时使用
+     */
+    void reduce(Status status, Production production) {
+        reduce(status, production, stack.top() - production.body().size() + 1);
+    }
+
+    void shift(Status status, Token token, int slot) {
+        this.status = status;
+        this.token = token;
+        this.production = null;
+        this.slot = slot;
+    }
+
+    void reduce(Status status, Production production, int slot) {
+        this.status = status;
+        this.token = null;
+        this.production = production;
+        this.slot = slot;
+    }
+
+    /**
+     * 按准备好的 shift 上下文通知一个观察者: {@link ContextObserver} 收到上下文, 其它观察者按 {@link ActionObserver} 的约定通知
+     */
+    void notifyShift(ActionObserver observer) {
+        if (observer instanceof ContextObserver contextObserver) {
+            contextObserver.whenShift(this);
+        } else {
+            observer.whenShift(status, token);
+        }
+    }
+
+    /**
+     * 按准备好的 reduce 上下文通知一个观察者, 同 {@link #notifyShift(ActionObserver)}
+     */
+    void notifyReduce(ActionObserver observer) {
+        if (observer instanceof ContextObserver contextObserver) {
+            contextObserver.whenReduce(this);
+        } else {
+            observer.whenReduce(status, production);
+        }
+    }
+
+    private final ParseStack stack;
+    private Status status;
+    private Token token;
+    private Production production;
+    private int slot;
+}
@@ -0,0 +1,134 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.LRTableFile;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 把驱动程序的 shift/reduce/accept 事件记录为二进制日志的观察者
+ * <br>
+ * 只改动了语义分析或 IR 生成时, 用 {@link ParseLogReplayer} 重放日志即可重新驱动这些观察者, 而不必重新进行词法分析与语法分析.
+ * 日志的格式为:
+ * <pre>
+ *     int    魔数 'PLOG'
+ *     int    版本号
+ *     long   grammar.txt 与 coding_map.csv 的 CRC32 校验和, 见 {@link LRTableFile#grammarChecksum()}
+ *     int    事件部分的字节数
+ *     byte[] 事件, 每个事件以 varint (载荷 &lt;&lt; 2 | 种类) 开头:
+ *            shift  载荷为 (码点 + 1), 后跟 varint 文本编号
+ *            reduce 载荷为产生式编号
+ *            accept 载荷为 0, 也是最后一个事件
+ *     long   事件部分的 CRC32 校验和
+ * </pre>
+ * 日志中不记录状态, 重放时由分析表从起始状态重新推出, 这同时也检查了日志与分析表是否相符.
+ * 文本编号 0 表示空文本, k 表示字符串表中的第 k 个字符串; 比字符串表当前的大小多一的编号表示一个新字符串, 其后紧跟 varint 字节数与 UTF-8 字节,
+ * 即字符串表内联在事件中, 按第一次出现的顺序编号. varint 为每字节低 7 位有效, 最高位表示是否还有后续字节的无符号变长整数.
+ */
+public class ParseLogRecorder implements ActionObserver {
+    static final int MAGIC = 0x504C4F47;
+    static final int VERSION = 1;
+
+    static final int SHIFT = 1;
+    static final int REDUCE = 2;
+    static final int ACCEPT = 3;
+
+    @Override
+    public void whenShift(Status currentStatus, Token currentToken) {
+        writeVarint(currentToken.getKind().getCode() + 1 << 2 | SHIFT);
+
+        final var text = currentToken.getText();
+        if (text.isEmpty()) {
+            writeVarint(0);
+            return;
+        }
+
+        final var id = textIds.get(text);
+        if (id != null) {
+            writeVarint(id);
+        } else {
+            final var newId = textIds.size() + 1;
+            textIds.put(text, newId);
+            final var bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(newId);
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, events, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+
+    @Override
+    public void whenReduce(Status currentStatus, Production production) {
+        writeVarint(production.index() << 2 | REDUCE);
+    }
+
+    @Override
+    public void whenAccept(Status currentStatus) {
+        writeVarint(ACCEPT);
+    }
+
+    @Override
+    public void setSymbolTable(SymbolTable table) {
+        // 重放时由标识符的文本重建符号表, 不需要记录符号表
+    }
+
+    /**
+     * 将已记录的事件写为日志文件
+     *
+     * @param path 文件路径
+     */
+    public void write(String path) {
+        final var crc = new CRC32();
+        crc.update(events, 0, size);
+
+        try (final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(path))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(LRTableFile.grammarChecksum());
+            out.writeInt(size);
+            out.write(events, 0, size);
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
+    /**
+     * @return 已记录的事件占用的字节数
+     */
+    public int size() {
+        return size;
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            events[size++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        events[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int more) {
+        if (size + more > events.length) {
+            events = Arrays.copyOf(events, Math.max(events.length * 2, size + more));
+        }
+    }
+
+    private final Map<String, Integer> textIds = new HashMap<>();
+    private byte[] events = new byte[4096];
+    private int size = 0;
+}
@@ -0,0 +1,208 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.table.CompiledLRTable;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.LRTableFile;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * 重放 {@link ParseLogRecorder} 记录的日志, 不经词法分析与语法分析直接驱动观察者
+ * <br>
+ * 重放时维护与驱动程序相同的符号栈, 因此观察者收到的 {@link ParseContext} 与直接注册到驱动程序上时完全相同.
+ * 日志中没有符号表, 标识符在其文本第一次出现时加入传入的符号表, 这与词法分析时加入的条目相同.
+ * <br>
+ * 日志中不记录状态, 重放时像驱动程序一样维护状态栈, 由分析表推出每个事件时的状态; 因此需要传入记录日志时所用的分析表,
+ * 事件与分析表中的动作不符时会抛出异常.
+ */
+public final class ParseLogReplayer {
+    /**
+     * 尝试读取日志, 需要在 {@link TokenKind#loadTokenKinds()} 之后调用
+     *
+     * @param path 文件路径
+     * @return 读出的日志; 文件不存在, 已损坏, 版本不符或已过时时为空
+     */
+    public static Optional<ParseLogReplayer> tryLoad(String path) {
+        final var file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            final var buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != ParseLogRecorder.MAGIC || buffer.getInt() != ParseLogRecorder.VERSION
+                || buffer.getLong() != LRTableFile.grammarChecksum()) {
+                return Optional.empty();
+            }
+
+            final var events = new byte[buffer.getInt()];
+            buffer.get(events);
+            final var crc = new CRC32();
+            crc.update(events);
+            if (buffer.getLong() != crc.getValue()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(new ParseLogReplayer(events));
+        } catch (IOException | RuntimeException e) {
+            // 截断的文件会在读取时越界
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 按日志中的事件依次通知各观察者
+     *
+     * @param table       记录日志时所用的分析表
+     * @param symbolTable 符号表, 重放时加入日志中出现的标识符
+     * @param observers   观察者
+     */
+    public void replay(LRTable table, SymbolTable symbolTable, ActionObserver... observers) {
+        final var compiled = table.compile();
+        for (final var observer : observers) {
+            observer.setSymbolTable(symbolTable);
+        }
+
+        final var stack = new ParseStack();
+        final var context = new ParseContext(stack);
+        final var texts = new ArrayList<Token>();
+        var states = new int[64];
+        int top = 0;
+        states[0] = compiled.initState();
+        position = 0;
+
+        while (position < events.length) {
+            final var event = readVarint();
+            final var payload = event >>> 2;
+            final var state = states[top];
+            final var status = compiled.status(state);
+
+            switch (event & 0b11) {
+                case ParseLogRecorder.SHIFT -> {
+                    final var action = compiled.action(state, payload - 1);
+                    if (CompiledLRTable.kindOf(action) != CompiledLRTable.SHIFT) {
+                        throw new RuntimeException("Parse log does not match LR table: no shift at status " + state);
+                    }
+
+                    final var token = readToken(kindOf(payload - 1), symbolTable, texts);
+                    context.shift(status, token);
+                    for (final var observer : observers) {
+                        context.notifyShift(observer);
+                    }
+                    stack.shift(token);
+
+                    if (++top == states.length) {
+                        states = Arrays.copyOf(states, states.length * 2);
+                    }
+                    states[top] = CompiledLRTable.payloadOf(action);
+                }
+                case ParseLogRecorder.REDUCE -> {
+                    final var production = payload < compiled.productionCount() ? compiled.production(payload) : null;
+                    if (production == null) {
+                        throw new RuntimeException("Parse log does not match LR table: unknown production " + payload);
+                    }
+
+                    context.reduce(status, production);
+                    for (final var observer : observers) {
+                        context.notifyReduce(observer);
+                    }
+                    stack.reduce(production.body().size());
+
+                    top -= production.body().size();
+                    if (top < 0 || (states[top + 1] = compiled.gotoAfterReduce(states[top], payload)) < 0) {
+                        throw new RuntimeException("Parse log does not match LR table: no goto for " + production);
+                    }
+                    top++;
+                }
+                case ParseLogRecorder.ACCEPT -> {
+                    for (final var observer : observers) {
+                        observer.whenAccept(status);
+                    }
+                    return;
+                }
+                default -> throw new RuntimeException("Corrupted parse log at byte " + position);
+            }
+        }
+    }
+
+    private Token readToken(TokenKind kind, SymbolTable symbolTable, List<Token> texts) {
+        final var textId = readVarint();
+
+        if (textId == 0) {
+            // 简单词法单元没有文本, 同一类型复用同一个对象
+            final var index = kind.getCode() + 1;
+            if (simpleTokens[index] == null) {
+                simpleTokens[index] = kind == TokenKind.eof() ? Token.eof() : Token.simple(kind);
+            }
+            return simpleTokens[index];
+        }
+
+        if (textId == texts.size() + 1) {
+            final var bytes = new byte[readVarint()];
+            System.arraycopy(events, position, bytes, 0, bytes.length);
+            position += bytes.length;
+
+            final var text = new String(bytes, StandardCharsets.UTF_8);
+            if (kind.getIdentifier().equals("id") && !symbolTable.has(text)) {
+                symbolTable.add(text);
+            }
+            texts.add(Token.normal(kind, text));
+        } else if (textId > texts.size()) {
+            throw new RuntimeException("Unknown text in parse log: " + textId);
+        }
+
+        // 字符串表中的词法单元是按第一次出现时的类型构造的, 类型不同时才需要新建
+        final var token = texts.get(textId - 1);
+        return token.getKind() == kind ? token : Token.normal(kind, token.getText());
+    }
+
+    private TokenKind kindOf(int code) {
+        final var index = code + 1;
+        if (index < 0 || index >= kindsByCode.length || kindsByCode[index] == null) {
+            throw new RuntimeException("Unknown token kind code in parse log: " + code);
+        }
+        return kindsByCode[index];
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final var b = events[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new RuntimeException("Corrupted varint in parse log at byte " + position);
+    }
+
+    private ParseLogReplayer(byte[] events) {
+        this.events = events;
+
+        // 码点下标整体偏移 1, 使 EOF 的码点 -1 也能作为下标 (EOF 也在允许的类型之中)
+        final var allKinds = TokenKind.allAllowedTokenKinds().values();
+        final var maxCode = allKinds.stream().mapToInt(TokenKind::getCode).max().orElse(-1);
+        this.kindsByCode = new TokenKind[maxCode + 2];
+        for (final var kind : allKinds) {
+            kindsByCode[kind.getCode() + 1] = kind;
+        }
+        this.simpleTokens = new Token[maxCode + 2];
+    }
+
+    private final byte[] events;
+    private final TokenKind[] kindsByCode;
+    private final Token[] simpleTokens;
+    private int position;
+}
@@ -0,0 +1,58 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+
+import java.util.Arrays;
+
+/**
+ * 语法分析的符号栈, 由驱动程序维护, 供所有观察者共享读取
+ * <br>
+ * 栈中的每个位置 (slot) 与驱动程序状态栈中的位置一一对应: 第 0 个位置对应起始状态, 不放任何符号;
+ * 移入的终结符放在其词法单元上, 规约出的非终结符所在位置的词法单元为 null.
+ * <br>
+ * 观察者若需要为文法符号附加属性 (如类型, IR 值), 只需自己开一个按 slot 下标的数组, 在规约时按下标读取产生式体的属性,
+ * 再把产生式头的属性写到头所在的 slot 上即可, 不需要自己维护一个栈.
+ */
+public final class ParseStack {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * @param slot 位置
+     * @return 该位置上移入的词法单元; 该位置是非终结符时为 null
+     */
+    public Token token(int slot) {
+        return tokens[slot];
+    }
+
+    /**
+     * @return 栈顶的位置
+     */
+    public int top() {
+        return top;
+    }
+
+    //==================== 以下由驱动程序调用 ==============================//
+
+    void reset() {
+        Arrays.fill(tokens, 0, top + 1, null);
+        top = 0;
+    }
+
+    void shift(Token token) {
+        if (++top == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        tokens[top] = token;
+    }
+
+    void reduce(int bodySize) {
+        top -= bodySize;
+        if (++top == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        tokens[top] = null;
+    }
+
+    private Token[] tokens = new Token[INITIAL_CAPACITY];
+    private int top = 0;
+}
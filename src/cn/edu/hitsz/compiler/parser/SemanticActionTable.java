@@ -0,0 +1,91 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.Production;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 按产生式编号分派的语义动作表
+ * <br>
+ * 语义动作按产生式的文本 (如 {@code "S -> D id"}) 或 (头, 体) 绑定, 绑定时即在 GrammarInfo 中查出对应的产生式,
+ * 并写进以 {@link Production#index()} 为下标的数组中. 于是规约时的分派只是一次数组访问, 而观察者的代码中也不再出现与 grammar.txt
+ * 行号对应的魔数: 修改文法时, 产生式的编号随之改变也不影响绑定, 而删去或改写了某条产生式时, 绑定会在启动时就报错.
+ * <br>
+ * 没有绑定动作的产生式执行构造时给出的默认动作.
+ * <br>
+ * 动作不捕获观察者, 而是在规约时接收观察者的状态, 因此一张表只需在第一次使用时绑定一次, 由同一观察者的所有实例共享.
+ * 绑定完成后表不再改变, 可以被多个线程同时读取.
+ *
+ * @param <S> 语义动作读写的观察者状态
+ */
+public final class SemanticActionTable<S> {
+    /**
+     * 需要在 {@code TokenKind.loadTokenKinds()} 之后构造
+     *
+     * @param defaultAction 没有绑定动作的产生式在规约时执行的动作
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SemanticActionTable(BiConsumer<S, ParseContext> defaultAction) {
+        this.productions = GrammarInfo.getProductionsInOrder();
+        final var maxIndex = productions.stream().mapToInt(Production::index).max().orElse(0);
+        this.actions = new BiConsumer[maxIndex + 1];
+        this.bound = new boolean[maxIndex + 1];
+        Arrays.fill(actions, defaultAction);
+    }
+
+    /**
+     * 为一条产生式绑定语义动作
+     *
+     * @param text   产生式的文本, 与 grammar.txt 中的写法相同, 末尾的分号可以省略
+     * @param action 规约该产生式时执行的动作
+     * @return 该表本身
+     * @throws RuntimeException 文法中没有该产生式, 或该产生式已经绑定过动作
+     */
+    public SemanticActionTable<S> on(String text, BiConsumer<S, ParseContext> action) {
+        final var normalized = String.join(" ", text.replace(";", "").trim().split("\\s+"));
+        final var production = GrammarInfo.getProductionByText(normalized);
+
+        // 按文本查出的产生式须与按行号排列的产生式一致, 编号才能作为下标
+        final var index = production.index();
+        if (index <= 0 || index > productions.size() || productions.get(index - 1) != production) {
+            throw new RuntimeException("Production is not in grammar order: " + production);
+        }
+        if (bound[index]) {
+            throw new RuntimeException("Semantic action bound twice for production: " + production);
+        }
+
+        actions[index] = action;
+        bound[index] = true;
+        return this;
+    }
+
+    /**
+     * 为一条产生式绑定语义动作
+     *
+     * @param head   产生式头的名字
+     * @param body   产生式体中各符号的名字
+     * @param action 规约该产生式时执行的动作
+     * @return 该表本身
+     * @throws RuntimeException 文法中没有该产生式, 或该产生式已经绑定过动作
+     */
+    public SemanticActionTable<S> on(String head, List<String> body, BiConsumer<S, ParseContext> action) {
+        return on(head + " -> " + String.join(" ", body), action);
+    }
+
+    /**
+     * 执行待规约的产生式所绑定的动作
+     *
+     * @param state   执行动作的观察者的状态
+     * @param context reduce 时的分析上下文
+     */
+    public void reduce(S state, ParseContext context) {
+        actions[context.production().index()].accept(state, context);
+    }
+
+    private final List<Production> productions;
+    private final BiConsumer<S, ParseContext>[] actions;
+    private final boolean[] bound;
+}
@@ -1,21 +1,34 @@
 package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.lexer.Token;
-import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SourceCodeType;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 
 // TODO: 实验三: 实现语义分析
 
-// 语义分析栈的数据结构：只用到终结符 token  和类型type
-public class SemanticAnalyzer implements ActionObserver {
+// 语义分析只用到终结符 token 和类型 type: token 从驱动程序共享的符号栈上读取, 类型按符号栈的位置存放在数组里
+public class SemanticAnalyzer implements ContextObserver {
     private SymbolTable symbolTable;
 
-    private final Deque<VTSymbol> symbolStack = new ArrayDeque<>();   // 符号栈,还是用symbolEntry，其实根本用不到符号，只用得到类型
+    private SourceCodeType[] types = new SourceCodeType[64];   // 第 i 个位置上的文法符号的类型, 没有类型的为 null
+
+    // 语义动作按产生式的文本绑定, 其余产生式的头没有类型. 第一次规约时才绑定, 所有实例共用一张表
+    private static final class Actions {
+        static final SemanticActionTable<SemanticAnalyzer> TABLE = new SemanticActionTable<SemanticAnalyzer>(
+            (analyzer, context) -> analyzer.types[context.slot()] = null)
+            .on("D -> int", (analyzer, context) -> analyzer.types[context.slot()] = SourceCodeType.Int)
+            .on("S -> D id", (analyzer, context) -> {
+                // 要更新符号表: 从符号表里获取id，设置id的type为D的type
+                Token id = context.token(1);
+                SourceCodeType type = analyzer.types[context.slot(0)];
+                analyzer.symbolTable.get(id.getText()).setType(type);
+                analyzer.types[context.slot()] = null;
+            });
+    }
+
     @Override
     public void whenAccept(Status currentStatus) {
         // TODO: 该过程在遇到 Accept 时要采取的代码动作
@@ -24,46 +37,26 @@ public class SemanticAnalyzer implements ActionObserver {
     }
 
     @Override
-    public void whenReduce(Status currentStatus, Production production) {
+    public void whenReduce(ParseContext context) {
         // TODO: 该过程在遇到 reduce production 时要采取的代码动作
 //        throw new NotImplementedException();
 
-        // 规约时要看是哪一条产生式，4，5号产生式要做类型的传递
-        int productionIndex = production.index();  // 获取产生式号判断
-        if (productionIndex == 5) {
-            // D -> int;
-            symbolStack.pop();   // 弹出 int这个token
-            symbolStack.push(new VTSymbol(production.head(), SourceCodeType.Int));
-        } else if (productionIndex == 4) {
-            //S -> D id; 要更新符号表
-            VTSymbol id = symbolStack.pop(); // 弹出栈顶的符号id
-            VTSymbol D  = symbolStack.pop(); // 弹出栈顶的D
-            symbolTable.get(id.getToken().getText()).setType(D.type);   //  从符号表里获取id，设置id的type为D的type
-            symbolStack.push(new VTSymbol(production.head()));
-
-
-        } else {
-            for (int i = 0; i < production.body().size(); i++) {
-
-                symbolStack.pop();  // 弹出符号
-
-            }
-            symbolStack.push(new VTSymbol(production.head()));
-        }
-
-
+        // 规约时按产生式分派语义动作, 只有 D -> int 与 S -> D id 要做类型的传递
+        ensureCapacity(context.slot());   // 产生式头规约后所在的位置
+        Actions.TABLE.reduce(this, context);
     }
 
     /**
      *
-     * @param currentStatus 调用时语法分析栈的栈顶状态
-     * @param currentToken  当前的词法单元
+     * @param context 分析上下文, 被移进的终结符将位于 {@code context.slot()}
      */
     @Override
-    public void whenShift(Status currentStatus, Token currentToken) {
+    public void whenShift(ParseContext context) {
         // TODO: 该过程在遇到 shift 时要采取的代码动作
 //        throw new NotImplementedException();
-        symbolStack.push(new VTSymbol(currentToken));  // 把移进的终结符压入符号栈
+        // 移进的终结符已由驱动程序放进符号栈, 这里只需要清掉该位置上残留的类型
+        ensureCapacity(context.slot());
+        types[context.slot()] = null;
 
     }
 
@@ -75,5 +68,10 @@ public class SemanticAnalyzer implements ActionObserver {
         this.symbolTable = table;
     }
 
-}
+    private void ensureCapacity(int slot) {
+        if (slot >= types.length) {
+            types = Arrays.copyOf(types, Math.max(types.length * 2, slot + 1));
+        }
+    }
 
+}
@@ -1,15 +1,16 @@
 package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.lexer.Token;
-import cn.edu.hitsz.compiler.parser.table.Action;
+import cn.edu.hitsz.compiler.lexer.TokenCursor;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.table.CompiledLRTable;
 import cn.edu.hitsz.compiler.parser.table.LRTable;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.List;
 
 //TODO: 实验二: 实现 LR 语法分析驱动程序
@@ -25,13 +26,23 @@ import java.util.List;
 public class SyntaxAnalyzer {
     private final SymbolTable symbolTable;
     private final List<ActionObserver> observers = new ArrayList<>();
-
-    // 输入串的一个缓冲区，读入后直接按顺序加进来，并补一个结束符。token类
-//   分析的时候用的是符号栈，既有非终结符也有终结符，入符号栈还要做一个转换
-    private final Deque<Token> tokenQueue = new ArrayDeque<>();
-    private final Deque<Status> statusStack = new ArrayDeque<>(); // 状态栈 ， 初始化的时候要补一个初始状态
-    private final Deque<VTSymbol> SymbolStack = new ArrayDeque<>();   // 符号栈
-    private LRTable lrTable;
+    // 读取共享符号栈的观察者, 在 run 开始时从 observers 中挑出
+    private ContextObserver[] contextObservers = new ContextObserver[0];
+
+    // 所有观察者共享的符号栈与上下文, 每一步只由驱动程序维护一次, 观察者按位置读取, 不再各自维护一个栈
+    private final ParseStack parseStack = new ParseStack();
+    private final ParseContext context = new ParseContext(parseStack);
+
+    // 输入串，通过游标按需取出，只保留一个向前看的 token 的码点，读完后补一个结束符。
+    // 分析只用到状态栈：状态编号存在 int 数组里，查表用编译后的整数分析表，符号栈只是为观察者维护的
+    private static final int EOF_CODE = TokenKind.eof().getCode();
+    private static final int INITIAL_STACK_SIZE = 64;
+
+    private TokenCursor tokenCursor;
+    private int lookaheadCode;
+    private int[] statusStack = new int[INITIAL_STACK_SIZE]; // 状态栈 ， 初始化的时候要补一个初始状态
+    private int top = -1;
+    private CompiledLRTable lrTable;
     public SyntaxAnalyzer(SymbolTable symbolTable) {
         this.symbolTable = symbolTable;
     }
@@ -87,12 +98,24 @@ public class SyntaxAnalyzer {
         // 需要注意的是, 在实现驱动程序的过程中, 你会需要面对只读取一个 token 而不能消耗它的情况,
         // 在自行设计的时候请加以考虑此种情况
 //        throw new NotImplementedException();
-        // 直接把输入的token流依次入队列
-        for (Token token : tokens) {
-            tokenQueue.add(token);
-        }
-        // 添加 EOF token
-        tokenQueue.add(Token.eof());
+        // 只保存游标，分析时每次向前看一个 token，这样惰性的 token 流不会被一次性展开
+        // 若是词法分析器输出的 TokenBuffer，游标直接在紧凑存储上移动，不产生新对象
+        tokenCursor = TokenCursor.of(tokens);
+        advanceLookahead();
+    }
+
+    /**
+     * 向前看下一个 token, 输入耗尽时为 EOF
+     */
+    private void advanceLookahead() {
+        lookaheadCode = tokenCursor.advance() ? tokenCursor.code() : EOF_CODE;
+    }
+
+    /**
+     * @return 向前看的 token; 只在通知观察者时才需要取出对象
+     */
+    private Token lookaheadToken() {
+        return lookaheadCode == EOF_CODE ? Token.eof() : tokenCursor.token();
     }
 
     public void loadLRTable(LRTable table) {
@@ -100,9 +123,11 @@ public class SyntaxAnalyzer {
         // 你可以自行选择要如何使用该表格:
         // 是直接对 LRTable 调用 getAction/getGoto, 抑或是直接将 initStatus 存起来使用
 //        throw new NotImplementedException();
-        // 初始化 LR 分析表和状态栈
-        this.lrTable = table;
-        statusStack.push(lrTable.getInit());  // 初始状态
+        // 初始化 LR 分析表和状态栈, 分析时只查编译后的整数分析表
+        this.lrTable = table.compile();
+        top = -1;
+        pushStatus(lrTable.initState());  // 初始状态
+        parseStack.reset();  // 符号栈的第 0 个位置对应初始状态, 不放符号
     }
 
     // 这是个驱动程序，就是根据已经构造好的分析表，根据维护的栈顶跑起来。不包括记录规约使用的语法规则，以及语义分析之类的。
@@ -114,68 +139,86 @@ public class SyntaxAnalyzer {
         // 否则用于为实验二打分的产生式输出可能不会正常工作
 //        throw new NotImplementedException();
         // 语法分析的主循环
-        // 主要是每次从tokenQueue先看一个token，从statusStack查栈顶符号，用lrTable提供的方法直接查动作。
+        // 主要是每次看向前看的 token，从statusStack查栈顶符号，用lrTable提供的方法直接查动作。
         // 查到了动作后，每个对象做什么操作需要实现。
 
         // 调用callWhenInShift, callWhenInReduce, callWhenInAccept 是后面语义分析用来后面生成输出用的，使用了观察者模式。
-
-        while (!tokenQueue.isEmpty()) {
-            // peek()取头部，不移除  poll移除头部返回  add加尾部
-            Status currentStatus = statusStack.peek();  // 查看当前状态
-            Action action = lrTable.getAction(statusStack.peek(), tokenQueue.peek());  // 根据状态和当前 token 获取 action
-
-            switch (action.getKind()) {
-                case Shift:
-                    handleShift(action);
-                    break;
-                case Reduce:
-                    handleReduce(action);
-                    break;
-                case Accept:
+        // 读取共享符号栈的观察者在 callWhenInShift, callWhenInReduce 之后再以上下文通知一次
+        contextObservers = observers.stream()
+            .filter(ContextObserver.class::isInstance)
+            .map(ContextObserver.class::cast)
+            .toArray(ContextObserver[]::new);
+
+        while (true) {
+            // 栈顶状态和向前看的 token 决定动作
+            final int currentStatus = statusStack[top];  // 查看当前状态
+            final int action = lrTable.action(currentStatus, lookaheadCode);  // 根据状态和当前 token 的码点获取打包的 action
+
+            switch (CompiledLRTable.kindOf(action)) {
+                case CompiledLRTable.SHIFT -> handleShift(currentStatus, CompiledLRTable.payloadOf(action));
+                case CompiledLRTable.REDUCE -> handleReduce(currentStatus, CompiledLRTable.payloadOf(action));
+                case CompiledLRTable.ACCEPT -> {
                     handleAccept(currentStatus);
                     return;  // 分析结束
-                default:
-                    throw new IllegalStateException("Unexpected action kind: " + action.getKind());
+                }
+                default -> throw new RuntimeException("Syntax error at status %d on token %s"
+                    .formatted(currentStatus, lookaheadToken()));
             }
         }
     }
-    private void handleShift(Action action) {
-        // 执行 Shift 动作：状态入栈。token 出队，并压入符号栈
-//
-        callWhenInShift(statusStack.peek(), tokenQueue.peek()); // 看上去好像语义分析慢一步，要等符号表更新
-
-
-        Status nextState = action.getStatus(); // action.getStatus只有当action是shift类型才能调用，action已经存储好了要移去的状态，调用即可获得
-        statusStack.push(nextState);   // 将新状态压入状态栈
-        SymbolStack.push(new VTSymbol(tokenQueue.poll()));   // 读入的是token，因为语法分析只需要token，但是构建符号放符号栈还可以同时做语义分析
-        // 调用poll方法出队，在返回的同时，将token出队
 
+    private void handleShift(int currentStatus, int nextStatus) {
+        // 执行 Shift 动作：新状态入栈，token 出队
+        // 没有观察者时符号栈无人读取, 不必维护
+        if (!observers.isEmpty()) {
+            final var token = lookaheadToken();
+            final var status = lrTable.status(currentStatus);
+            callWhenInShift(status, token); // 看上去好像语义分析慢一步，要等符号表更新
+            // 被移入的符号将位于当前栈顶之上
+            context.shift(status, token, top + 1);
+            for (final var listener : contextObservers) {
+                listener.whenShift(context);
+            }
+            parseStack.shift(token);
+        }
 
+        pushStatus(nextStatus);   // 将新状态压入状态栈
+        // 移入后再向前看下一个 token
+        advanceLookahead();
     }
-    private void handleReduce(Action action) {
-        // 执行 Reduce 动作：获取产生式，执行规约。规约后应该将状态栈出栈，再用栈顶查goto表，把新状态压入栈中。 把符号栈中右部的也出栈，把左部压入符号栈
 
+    private void handleReduce(int currentStatus, int production) {
+        // 执行 Reduce 动作：弹出与产生式右部相应数量的状态，再用栈顶查goto表，把新状态压入栈中
+        if (!observers.isEmpty()) {
+            final var status = lrTable.status(currentStatus);
+            final var reduced = lrTable.production(production);
+            callWhenInReduce(status, reduced);
+            // 产生式头将占据产生式体第一个符号的位置
+            context.reduce(status, reduced, top - lrTable.bodySize(production) + 1);
+            for (final var listener : contextObservers) {
+                listener.whenReduce(context);
+            }
+            parseStack.reduce(lrTable.bodySize(production));
+        }
 
-        Production production = action.getProduction();  // Action对象已经存储好了产生式，调用get方法获取
-        callWhenInReduce(statusStack.peek(), production);
-
-        //  注意Production是记录 record， 访问记录的字段是这么访问的
-       /*访问字段的方式确实看起来像调用方法。
-       这是因为记录类型会自动生成访问器方法（getter），用于访问记录中的各个字段。当你使用recordObject.fieldName()的形式时，实际上是在调用自动生成的访问器方法来获取该字段的值。8*/
-        for (int i = 0; i < production.body().size(); i++) {
-            statusStack.pop();  // 弹出与产生式右部相应数量的状态
-            SymbolStack.pop();  // 弹出符号
+        top -= lrTable.bodySize(production);
+        // 根据此时的栈顶与产生式左部查goto表，获得新状态入栈
+        final int nextStatus = lrTable.gotoAfterReduce(statusStack[top], production);
+        if (nextStatus < 0) {
+            throw new RuntimeException("No goto for " + lrTable.production(production) + " at status " + statusStack[top]);
         }
-        // 将产生式左部符号入栈
-        SymbolStack.push(new VTSymbol(production.head()));
-        // 根据此时的两个栈顶查goto表，获得新状态入栈
-        statusStack.push(lrTable.getGoto(statusStack.peek(), production.head()));
+        pushStatus(nextStatus);
     }
 
-    private void handleAccept(Status currentStatus) {
+    private void handleAccept(int currentStatus) {
         // 执行 Accept 动作，通知所有观察者
-        callWhenInAccept(currentStatus);
-        tokenQueue.poll();  // 移除 EOF token
+        callWhenInAccept(lrTable.status(currentStatus));
     }
 
+    private void pushStatus(int status) {
+        if (++top == statusStack.length) {
+            statusStack = Arrays.copyOf(statusStack, statusStack.length * 2);
+        }
+        statusStack[top] = status;
+    }
 }
@@ -0,0 +1,115 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * 按行移位 (row displacement) 压缩的稀疏二维表
+ * <br>
+ * 每一行只保存与该行默认值不同的格. 各行被错开一个偏移量 base 后叠放进同一个一维数组 value 中, 使任意两行的有效格互不重叠;
+ * 另一个同样长的数组 check 记录每个位置属于哪一行. 查找第 row 行第 column 列时, 若 {@code check[base[row] + column] == row}
+ * 则该格有效, 否则取该行的默认值.
+ * <br>
+ * 压缩时按有效格数从多到少依次为每行找最小的可用偏移量 (first fit), 稀疏的行往往能填进稠密行留下的空隙中.
+ */
+final class CombVector {
+    /**
+     * 压缩一张表
+     *
+     * @param rows     原始的表, 每行长度相同
+     * @param defaults 每行的默认值, 与默认值相等的格不会被保存
+     * @return 压缩后的表
+     */
+    static CombVector pack(int[][] rows, int[] defaults) {
+        final var rowCount = rows.length;
+        final var columnCount = rowCount == 0 ? 0 : rows[0].length;
+        final var counts = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            for (int column = 0; column < columnCount; column++) {
+                if (rows[row][column] != defaults[row]) {
+                    counts[row]++;
+                }
+            }
+        }
+
+        final var base = new int[rowCount];
+        var check = new int[Math.max(columnCount, 16)];
+        var value = new int[check.length];
+        Arrays.fill(check, -1);
+        int length = 0;
+
+        final var order = IntStream.range(0, rowCount).boxed()
+            .sorted(Comparator.comparingInt((Integer row) -> counts[row]).reversed())
+            .toList();
+        for (final int row : order) {
+            if (counts[row] == 0) {
+                // 空行不占空间, 任何位置的 check 都不会等于它的行号
+                continue;
+            }
+
+            int offset = 0;
+            while (!fits(rows[row], defaults[row], check, offset)) {
+                offset++;
+            }
+
+            if (offset + columnCount > check.length) {
+                final var capacity = Math.max(check.length * 2, offset + columnCount);
+                final var oldLength = check.length;
+                check = Arrays.copyOf(check, capacity);
+                value = Arrays.copyOf(value, capacity);
+                Arrays.fill(check, oldLength, capacity, -1);
+            }
+
+            base[row] = offset;
+            for (int column = 0; column < columnCount; column++) {
+                if (rows[row][column] != defaults[row]) {
+                    check[offset + column] = row;
+                    value[offset + column] = rows[row][column];
+                    length = Math.max(length, offset + column + 1);
+                }
+            }
+        }
+
+        return new CombVector(base, Arrays.copyOf(check, length), Arrays.copyOf(value, length), defaults.clone());
+    }
+
+    /**
+     * @param row    行号
+     * @param column 列号
+     * @return 该格的值, 未保存的格返回该行的默认值
+     */
+    int get(int row, int column) {
+        final var index = base[row] + column;
+        return index < check.length && check[index] == row ? value[index] : defaults[row];
+    }
+
+    /**
+     * @return 占用的字节数
+     */
+    long footprint() {
+        return (long) (base.length + check.length + value.length + defaults.length) * Integer.BYTES;
+    }
+
+    private static boolean fits(int[] row, int default_, int[] check, int offset) {
+        for (int column = 0; column < row.length; column++) {
+            final var index = offset + column;
+            if (row[column] != default_ && index < check.length && check[index] >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CombVector(int[] base, int[] check, int[] value, int[] defaults) {
+        this.base = base;
+        this.check = check;
+        this.value = value;
+        this.defaults = defaults;
+    }
+
+    private final int[] base;
+    private final int[] check;
+    private final int[] value;
+    private final int[] defaults;
+}
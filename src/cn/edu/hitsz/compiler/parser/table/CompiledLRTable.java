@@ -0,0 +1,306 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * 编译为整数数组形式的 LR 分析表
+ * <br>
+ * {@link LRTable} 的每次查表都要经过 Status 中以 Term 为键的 HashMap, 而 Term 的哈希值又是其名字字符串的哈希值.
+ * 该类把 ACTION 与 GOTO 表编译为只用 int 下标访问的数组形式, 终结符的列号由码点经一张数组直接得到,
+ * 非终结符的列号则在编译时就按产生式预先算好. 于是驱动程序可以只用 int 完成整个分析过程, 只有在通知观察者时才需要取回
+ * Status 与 Production 对象.
+ * <br>
+ * ACTION 表中的每个动作被打包为一个 int: 低 2 位是动作种类, 其余位是载荷 (移入的目标状态编号, 或规约的产生式编号).
+ * <br>
+ * 表的具体存储方式由 {@link LRTable.Layout} 决定, 见 {@link DenseLRTable} 与 {@link CompressedLRTable}.
+ */
+public abstract sealed class CompiledLRTable permits DenseLRTable, CompressedLRTable {
+    public static final int ERROR = 0;
+    public static final int SHIFT = 1;
+    public static final int REDUCE = 2;
+    public static final int ACCEPT = 3;
+
+    /**
+     * @param action 打包的动作
+     * @return 动作的种类, 为 ERROR, SHIFT, REDUCE, ACCEPT 之一
+     */
+    public static int kindOf(int action) {
+        return action & 0b11;
+    }
+
+    /**
+     * @param action 打包的动作
+     * @return 动作的载荷: 移入动作的目标状态编号, 或规约动作的产生式编号
+     */
+    public static int payloadOf(int action) {
+        return action >>> 2;
+    }
+
+    /**
+     * 按分析表指定的存储方式编译一张 LR 分析表
+     *
+     * @param table 分析表
+     * @return 编译后的分析表
+     */
+    static CompiledLRTable compile(LRTable table) {
+        return compile(Source.of(table), table.getLayout());
+    }
+
+    /**
+     * 由已经打包好的原始表编译, 不经过 Status 中的映射
+     *
+     * @param source 原始表
+     * @param layout 存储方式
+     * @return 编译后的分析表
+     */
+    static CompiledLRTable compile(Source source, LRTable.Layout layout) {
+        return switch (layout) {
+            case DENSE -> new DenseLRTable(source);
+            case COMPRESSED -> new CompressedLRTable(source);
+        };
+    }
+
+    /**
+     * 编译前的原始表, ACTION 与 GOTO 的各格已经打包为 int 并按状态编号排列
+     * <br>
+     * 既可以由 {@link LRTable} 中各 Status 的映射打包得到, 也可以由 {@link LRTableFile} 直接从映射的文件中读出.
+     * 子类只在构造时读取它, 编译后不再持有.
+     *
+     * @param statuses     以编号为下标的 Status 对象, 不存在的编号为 null
+     * @param initState    起始状态编号
+     * @param terminals    ACTION 表的各列
+     * @param nonTerminals GOTO 表的各列
+     * @param actions      打包的动作, 下标为 {@code 状态编号 * 终结符数 + 列号}, 不存在的状态全部出错
+     * @param gotos        转移目标, 下标为 {@code 状态编号 * 非终结符数 + 列号}, 没有转移时为 -1
+     * @param productionOf 由产生式编号取得 Production 对象
+     */
+    record Source(Status[] statuses, int initState, List<TokenKind> terminals, List<NonTerminal> nonTerminals,
+                  int[] actions, int[] gotos, IntFunction<Production> productionOf) {
+        /**
+         * 打包分析表中各 Status 的映射
+         *
+         * @param table 分析表
+         * @return 原始表
+         */
+        static Source of(LRTable table) {
+            final var statusList = table.getStatuses();
+            final var terminals = table.getTerminals();
+            final var nonTerminals = table.getNonTerminals();
+
+            final var stateCount = statusList.stream().mapToInt(Status::index).max().orElse(-1) + 1;
+            final var statuses = new Status[stateCount];
+            final var actions = new int[stateCount * terminals.size()];
+            final var gotos = new int[stateCount * nonTerminals.size()];
+            Arrays.fill(gotos, -1);
+            final var productions = new HashMap<Integer, Production>();
+            for (final var status : statusList) {
+                final var state = status.index();
+                statuses[state] = status;
+                for (int column = 0; column < terminals.size(); column++) {
+                    final var action = status.getAction(terminals.get(column));
+                    if (action.getKind() == Action.ActionKind.Reduce) {
+                        productions.put(action.getProduction().index(), action.getProduction());
+                    }
+                    actions[state * terminals.size() + column] = pack(action);
+                }
+                for (int column = 0; column < nonTerminals.size(); column++) {
+                    final var target = status.getGoto(nonTerminals.get(column));
+                    gotos[state * nonTerminals.size() + column] = target.isError() ? -1 : target.index();
+                }
+            }
+
+            return new Source(statuses, table.getInit().index(), terminals, nonTerminals,
+                actions, gotos, productions::get);
+        }
+
+        /**
+         * @return 该格的打包动作
+         */
+        int action(int state, int column) {
+            return actions[state * terminals.size() + column];
+        }
+
+        /**
+         * @return 该格的转移目标; 没有转移时为 -1
+         */
+        int gotoTarget(int state, int column) {
+            return gotos[state * nonTerminals.size() + column];
+        }
+    }
+
+    /**
+     * @param state        状态编号
+     * @param terminalCode 终结符 (词法单元类型) 的码点
+     * @return 打包的动作
+     */
+    public final int action(int state, int terminalCode) {
+        final var index = terminalCode + 1;
+        if (index < 0 || index >= columnOfCode.length || columnOfCode[index] < 0) {
+            return ERROR;
+        }
+
+        return actionAt(state, columnOfCode[index]);
+    }
+
+    /**
+     * @param state      规约后露出的栈顶状态编号
+     * @param production 被规约的产生式编号
+     * @return 应转移到的状态编号; 没有转移时为 -1
+     */
+    public final int gotoAfterReduce(int state, int production) {
+        return gotoAt(state, headColumns[production]);
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 产生式体的长度
+     */
+    public int bodySize(int production) {
+        return bodySizes[production];
+    }
+
+    /**
+     * @return 起始状态编号
+     */
+    public int initState() {
+        return initState;
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 对应的 Status 对象; 没有该编号的状态时为 null
+     */
+    public Status status(int state) {
+        return statuses[state];
+    }
+
+    /**
+     * @param production 产生式编号
+     * @return 对应的 Production 对象; 表中没有对该产生式的规约时为 null
+     */
+    public Production production(int production) {
+        return productions[production];
+    }
+
+    /**
+     * @return 产生式编号的上界, 编号小于它的产生式才可能出现在表中
+     */
+    public int productionCount() {
+        return productions.length;
+    }
+
+    /**
+     * @return 表本身 (ACTION, GOTO 及其辅助数组) 占用的字节数
+     */
+    public abstract long footprint();
+
+    /**
+     * @return 同一张表按稠密数组存储时占用的字节数
+     */
+    public final long denseFootprint() {
+        return (long) stateCount() * (terminalCount + nonTerminalCount) * Integer.BYTES;
+    }
+
+    /**
+     * @return 描述表的存储方式与占用空间的一行文本
+     */
+    public String footprintReport() {
+        return "%s LR table: %d states x (%d terminals + %d non-terminals), %d bytes (dense %d bytes, %.1f%%)".formatted(
+            getClass().getSimpleName(), stateCount(), terminalCount, nonTerminalCount,
+            footprint(), denseFootprint(), 100.0 * footprint() / denseFootprint());
+    }
+
+    /**
+     * @param state  状态编号
+     * @param column 终结符的列号
+     * @return 打包的动作
+     */
+    abstract int actionAt(int state, int column);
+
+    /**
+     * @param state  状态编号
+     * @param column 非终结符的列号
+     * @return 应转移到的状态编号; 没有转移时为 -1
+     */
+    abstract int gotoAt(int state, int column);
+
+    //==================== 以下供子类在构造时使用 ==============================//
+
+    final int stateCount() {
+        return statuses.length;
+    }
+
+    final int terminalCount() {
+        return terminalCount;
+    }
+
+    final int nonTerminalCount() {
+        return nonTerminalCount;
+    }
+
+    CompiledLRTable(Source source) {
+        final var terminals = source.terminals();
+        final var nonTerminals = source.nonTerminals();
+
+        this.terminalCount = terminals.size();
+        this.nonTerminalCount = nonTerminals.size();
+        this.statuses = source.statuses().clone();
+        this.initState = source.initState();
+
+        // 码点 -> 列号, 码点整体偏移 1 使 EOF 的 -1 也能作为下标
+        final var maxCode = terminals.stream().mapToInt(TokenKind::getCode).max().orElse(-1);
+        this.columnOfCode = new int[maxCode + 2];
+        Arrays.fill(columnOfCode, -1);
+        for (int column = 0; column < terminalCount; column++) {
+            columnOfCode[terminals.get(column).getCode() + 1] = column;
+        }
+
+        final var nonTerminalColumns = new HashMap<NonTerminal, Integer>();
+        for (int column = 0; column < nonTerminalCount; column++) {
+            nonTerminalColumns.put(nonTerminals.get(column), column);
+        }
+
+        // 产生式的编号来自 grammar.txt 的行号, 数组按表中出现的最大编号开辟
+        final var reduced = Arrays.stream(source.actions())
+            .filter(action -> kindOf(action) == REDUCE)
+            .map(CompiledLRTable::payloadOf)
+            .distinct()
+            .toArray();
+        final var productionCount = Arrays.stream(reduced).max().orElse(0) + 1;
+        this.productions = new Production[productionCount];
+        this.bodySizes = new int[productionCount];
+        this.headColumns = new int[productionCount];
+        for (final var index : reduced) {
+            final var production = source.productionOf().apply(index);
+            productions[index] = production;
+            bodySizes[index] = production.body().size();
+            headColumns[index] = nonTerminalColumns.getOrDefault(production.head(), -1);
+        }
+    }
+
+    static int pack(Action action) {
+        return switch (action.getKind()) {
+            case Shift -> action.getStatus().index() << 2 | SHIFT;
+            case Reduce -> action.getProduction().index() << 2 | REDUCE;
+            case Accept -> ACCEPT;
+            case Error -> ERROR;
+        };
+    }
+
+    private final int terminalCount;
+    private final int nonTerminalCount;
+    private final int initState;
+
+    private final int[] columnOfCode;
+
+    private final int[] bodySizes;
+    private final int[] headColumns;
+
+    private final Status[] statuses;
+    private final Production[] productions;
+}
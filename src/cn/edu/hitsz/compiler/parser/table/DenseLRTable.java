@@ -0,0 +1,42 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+/**
+ * 按稠密数组存储的 LR 分析表
+ * <br>
+ * ACTION 与 GOTO 表分别展开为按 {@code 状态编号 * 列数 + 列号} 下标的一维 int 数组, 每次查表只需要一次数组访问.
+ * 对于状态与符号都不多的文法, 这是最快的存储方式.
+ */
+final class DenseLRTable extends CompiledLRTable {
+    DenseLRTable(Source source) {
+        super(source);
+
+        this.actions = new int[stateCount() * terminalCount()];
+        this.gotos = new int[stateCount() * nonTerminalCount()];
+        for (int state = 0; state < stateCount(); state++) {
+            for (int column = 0; column < terminalCount(); column++) {
+                actions[state * terminalCount() + column] = source.action(state, column);
+            }
+            for (int column = 0; column < nonTerminalCount(); column++) {
+                gotos[state * nonTerminalCount() + column] = source.gotoTarget(state, column);
+            }
+        }
+    }
+
+    @Override
+    int actionAt(int state, int column) {
+        return actions[state * terminalCount() + column];
+    }
+
+    @Override
+    int gotoAt(int state, int column) {
+        return gotos[state * nonTerminalCount() + column];
+    }
+
+    @Override
+    public long footprint() {
+        return (long) (actions.length + gotos.length) * Integer.BYTES;
+    }
+
+    private final int[] actions;
+    private final int[] gotos;
+}
@@ -0,0 +1,444 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 文法的 FIRST, FOLLOW 集合与可空性
+ * <br>
+ * 集合以终结符序号为下标的 long[] 位集表示. 求解时不做递归, 而是在依赖图上跑工作表 (worklist) 直到不动点:
+ * <ul>
+ *     <li>FIRST: 产生式 A -> X1 ... Xk 依赖其体中每个 Xi, 某个非终结符的 FIRST 或可空性变化时, 只重新计算用到它的产生式</li>
+ *     <li>FOLLOW: 对每个 A -> alpha B beta, FOLLOW(B) 包含 FIRST(beta); 若 beta 可空, 再包含 FOLLOW(A).
+ *     前者直接求出, 后者沿 A -> B 的边传播</li>
+ * </ul>
+ * 这样可空的非终结符与相互递归的非终结符都能得到正确的结果.
+ * <br>
+ * 文法修改后可以调用 {@link #update(List)}: 只有产生式发生变化的非终结符, 以及 (沿依赖图) 受其影响的非终结符才会被清空重算,
+ * 其余非终结符的集合保持不变. 非终结符按名字识别, 其编号在多次更新间保持不变.
+ */
+public final class FirstFollowSets {
+    /**
+     * 计算一个文法的 FIRST, FOLLOW 集合与可空性
+     *
+     * @param terminals   所有终结符, 需要包含 EOF
+     * @param productions 产生式, 第一条产生式的头是开始符号
+     */
+    public FirstFollowSets(List<TokenKind> terminals, List<Production> productions) {
+        this.terminals = List.copyOf(terminals);
+        this.words = (terminals.size() + Long.SIZE - 1) / Long.SIZE;
+        for (int ordinal = 0; ordinal < terminals.size(); ordinal++) {
+            terminalOrdinals.put(terminals.get(ordinal), ordinal);
+        }
+        this.eofOrdinal = terminalOrdinals.get(TokenKind.eof());
+
+        update(productions);
+    }
+
+    /**
+     * 按修改后的文法增量地更新各集合
+     *
+     * @param productions 修改后的全部产生式
+     * @return 被重新计算的非终结符个数
+     */
+    public int update(List<Production> productions) {
+        // 按产生式的内容 (而不是编号) 比较, 在文法中间插入一行不会让后面的产生式都被视为修改过
+        final var shapes = new HashSet<Shape>();
+        productions.forEach(production -> shapes.add(Shape.of(production)));
+        final var changedHeads = new HashSet<NonTerminal>();
+        final var changedBodies = new ArrayList<List<Term>>();
+        for (final var shape : symmetricDifference(shapes, currentShapes)) {
+            changedHeads.add(shape.head());
+            changedBodies.add(shape.body());
+        }
+
+        final var oldStart = start;
+        start = productions.isEmpty() ? -1 : idOf(productions.get(0).head());
+        compile(productions);
+        currentShapes = shapes;
+
+        // FIRST: 产生式变化的非终结符, 以及 FIRST 依赖于它们的非终结符
+        final var firstRegion = new boolean[nonTerminalCount()];
+        final var pending = new ArrayDeque<Integer>();
+        for (final var head : changedHeads) {
+            mark(firstRegion, idOf(head), pending);
+        }
+        while (!pending.isEmpty()) {
+            for (final var production : users.get(pending.poll())) {
+                mark(firstRegion, heads[production], pending);
+            }
+        }
+        final var firstChanged = solveFirst(firstRegion);
+
+        // FOLLOW: 出现在变化的产生式中, 或与 FIRST (可空性) 真正改变了的符号出现在同一产生式中的非终结符,
+        // 以及 FOLLOW 依赖于它们的非终结符
+        buildFollowEdges();
+        final var followRegion = new boolean[nonTerminalCount()];
+        for (final var body : changedBodies) {
+            body.stream().filter(NonTerminal.class::isInstance)
+                .forEach(term -> mark(followRegion, idOf((NonTerminal) term), pending));
+        }
+        for (int p = 0; p < bodies.length; p++) {
+            if (Arrays.stream(bodies[p]).anyMatch(symbol -> !isTerminal(symbol) && firstChanged[symbol - terminalCount()])) {
+                for (final var symbol : bodies[p]) {
+                    if (!isTerminal(symbol)) {
+                        mark(followRegion, symbol - terminalCount(), pending);
+                    }
+                }
+            }
+        }
+        if (oldStart != start) {
+            if (oldStart >= 0) {
+                mark(followRegion, oldStart, pending);
+            }
+            if (start >= 0) {
+                mark(followRegion, start, pending);
+            }
+        }
+        while (!pending.isEmpty()) {
+            for (final var target : followEdges.get(pending.poll())) {
+                mark(followRegion, target, pending);
+            }
+        }
+        solveFollow(followRegion);
+
+        int recomputed = 0;
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            if (firstRegion[n] || followRegion[n]) {
+                recomputed++;
+            }
+        }
+        return recomputed;
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其能否推导出空串
+     */
+    public boolean isNullable(NonTerminal nonTerminal) {
+        final var id = nonTerminalIds.get(nonTerminal);
+        return id != null && nullable[id];
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其 FIRST 集合 (不含空串)
+     */
+    public Set<TokenKind> first(NonTerminal nonTerminal) {
+        final var id = nonTerminalIds.get(nonTerminal);
+        return id == null ? Set.of() : toTokenKinds(first[id]);
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其 FOLLOW 集合
+     */
+    public Set<TokenKind> follow(NonTerminal nonTerminal) {
+        final var id = nonTerminalIds.get(nonTerminal);
+        return id == null ? Set.of() : toTokenKinds(follow[id]);
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    /**
+     * 产生式的内容, 用于比较修改前后的文法
+     */
+    private record Shape(NonTerminal head, List<Term> body) {
+        static Shape of(Production production) {
+            return new Shape(production.head(), List.copyOf(production.body()));
+        }
+    }
+
+    private final List<TokenKind> terminals;
+    private final Map<TokenKind, Integer> terminalOrdinals = new HashMap<>();
+    private final int words;
+    private final int eofOrdinal;
+
+    // 非终结符的编号在多次更新间保持不变, 被删去的非终结符的集合将为空
+    private final Map<NonTerminal, Integer> nonTerminalIds = new HashMap<>();
+    private boolean[] nullable = new boolean[0];
+    private long[][] first = new long[0][];
+    private long[][] follow = new long[0][];
+
+    private Set<Shape> currentShapes = Set.of();
+    private int start = -1;
+
+    // 当前文法的整数形式, 符号编号: 终结符为其序号, 非终结符为 terminalCount + 非终结符编号
+    private int[] heads = new int[0];
+    private int[][] bodies = new int[0][];
+    // 非终结符 -> 体中用到它的产生式; 非终结符 A -> 所有 FOLLOW(A) 要传播到的非终结符 (A -> alpha B beta 且 beta 可空)
+    private List<List<Integer>> users = List.of();
+    private List<List<Integer>> followEdges = List.of();
+
+    private int terminalCount() {
+        return terminals.size();
+    }
+
+    private int nonTerminalCount() {
+        return nonTerminalIds.size();
+    }
+
+    private boolean isTerminal(int symbol) {
+        return symbol < terminalCount();
+    }
+
+    private int idOf(NonTerminal nonTerminal) {
+        return nonTerminalIds.computeIfAbsent(nonTerminal, key -> {
+            final var id = nonTerminalIds.size();
+            nullable = Arrays.copyOf(nullable, id + 1);
+            first = Arrays.copyOf(first, id + 1);
+            follow = Arrays.copyOf(follow, id + 1);
+            first[id] = new long[words];
+            follow[id] = new long[words];
+            return id;
+        });
+    }
+
+    private int symbolOf(Term term) {
+        if (term instanceof TokenKind tokenKind) {
+            final var ordinal = terminalOrdinals.get(tokenKind);
+            if (ordinal == null) {
+                throw new RuntimeException("Unknown terminal: " + tokenKind);
+            }
+            return ordinal;
+        } else if (term instanceof NonTerminal nonTerminal) {
+            return terminalCount() + idOf(nonTerminal);
+        } else {
+            throw new RuntimeException("Unknown type of Term");
+        }
+    }
+
+    /**
+     * 构造当前文法的整数形式与依赖图
+     */
+    private void compile(List<Production> productions) {
+        heads = new int[productions.size()];
+        bodies = new int[productions.size()][];
+        for (int p = 0; p < productions.size(); p++) {
+            heads[p] = idOf(productions.get(p).head());
+            bodies[p] = productions.get(p).body().stream().mapToInt(this::symbolOf).toArray();
+        }
+
+        users = new ArrayList<>();
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            users.add(new ArrayList<>());
+        }
+        for (int p = 0; p < bodies.length; p++) {
+            for (final var symbol : bodies[p]) {
+                if (!isTerminal(symbol)) {
+                    users.get(symbol - terminalCount()).add(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * 构造 FOLLOW 的传播边, 依赖于可空性, 需要在求出 FIRST 之后调用
+     */
+    private void buildFollowEdges() {
+        followEdges = new ArrayList<>();
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            followEdges.add(new ArrayList<>());
+        }
+        for (int p = 0; p < bodies.length; p++) {
+            final var body = bodies[p];
+            for (int i = body.length - 1; i >= 0 && !isTerminal(body[i]); i--) {
+                followEdges.get(heads[p]).add(body[i] - terminalCount());
+                if (!nullable[body[i] - terminalCount()]) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空 region 中非终结符的 FIRST 与可空性, 再以工作表求出不动点. region 之外的非终结符不依赖 region 中的, 其结果保持不变
+     *
+     * @return 结果与之前不同的非终结符
+     */
+    private boolean[] solveFirst(boolean[] region) {
+        final var worklist = new ArrayDeque<Integer>();
+        final var queued = new boolean[bodies.length];
+        final var oldFirst = new long[region.length][];
+        final var oldNullable = nullable.clone();
+        for (int n = 0; n < region.length; n++) {
+            if (region[n]) {
+                oldFirst[n] = first[n].clone();
+                nullable[n] = false;
+                Arrays.fill(first[n], 0);
+            }
+        }
+        for (int p = 0; p < bodies.length; p++) {
+            if (region[heads[p]]) {
+                worklist.add(p);
+                queued[p] = true;
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            final int p = worklist.poll();
+            queued[p] = false;
+
+            final var head = heads[p];
+            boolean changed = false;
+            boolean bodyNullable = true;
+            for (final var symbol : bodies[p]) {
+                if (isTerminal(symbol)) {
+                    changed |= set(first[head], symbol);
+                    bodyNullable = false;
+                    break;
+                }
+
+                changed |= union(first[head], first[symbol - terminalCount()]);
+                if (!nullable[symbol - terminalCount()]) {
+                    bodyNullable = false;
+                    break;
+                }
+            }
+            if (bodyNullable && !nullable[head]) {
+                nullable[head] = true;
+                changed = true;
+            }
+
+            if (changed) {
+                for (final var user : users.get(head)) {
+                    if (!queued[user]) {
+                        worklist.add(user);
+                        queued[user] = true;
+                    }
+                }
+            }
+        }
+
+        final var changed = new boolean[region.length];
+        for (int n = 0; n < region.length; n++) {
+            changed[n] = region[n] && (nullable[n] != oldNullable[n] || !Arrays.equals(first[n], oldFirst[n]));
+        }
+        return changed;
+    }
+
+    /**
+     * 清空 region 中非终结符的 FOLLOW, 再以工作表求出不动点
+     */
+    private void solveFollow(boolean[] region) {
+        for (int n = 0; n < region.length; n++) {
+            if (region[n]) {
+                Arrays.fill(follow[n], 0);
+            }
+        }
+        if (start >= 0 && region[start]) {
+            set(follow[start], eofOrdinal);
+        }
+
+        // 先求出各 FOLLOW(B) 中来自 FIRST(beta) 的部分, 并记下 beta 可空时 FOLLOW(A) -> FOLLOW(B) 的边
+        // 只有体中用到了 region 中非终结符的产生式才需要看
+        final var propagateTo = new ArrayList<List<Integer>>();
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            propagateTo.add(new ArrayList<>());
+        }
+        final var relevant = new BitSet(bodies.length);
+        for (int n = 0; n < region.length; n++) {
+            if (region[n]) {
+                users.get(n).forEach(relevant::set);
+            }
+        }
+        for (int p = relevant.nextSetBit(0); p >= 0; p = relevant.nextSetBit(p + 1)) {
+            final var body = bodies[p];
+            final var suffixFirst = new long[words];
+            boolean suffixNullable = true;
+            for (int i = body.length - 1; i >= 0; i--) {
+                final var symbol = body[i];
+                if (!isTerminal(symbol)) {
+                    final var id = symbol - terminalCount();
+                    if (region[id]) {
+                        union(follow[id], suffixFirst);
+                        if (suffixNullable) {
+                            propagateTo.get(heads[p]).add(id);
+                        }
+                    }
+                }
+
+                if (isTerminal(symbol)) {
+                    Arrays.fill(suffixFirst, 0);
+                    set(suffixFirst, symbol);
+                    suffixNullable = false;
+                } else {
+                    final var id = symbol - terminalCount();
+                    if (!nullable[id]) {
+                        Arrays.fill(suffixFirst, 0);
+                        suffixNullable = false;
+                    }
+                    union(suffixFirst, first[id]);
+                }
+            }
+        }
+
+        // 再沿边传播. 区域外的 FOLLOW 已是最终结果, 也作为传播的起点
+        final var worklist = new ArrayDeque<Integer>();
+        final var queued = new boolean[nonTerminalCount()];
+        for (int n = 0; n < nonTerminalCount(); n++) {
+            if (!propagateTo.get(n).isEmpty()) {
+                worklist.add(n);
+                queued[n] = true;
+            }
+        }
+        while (!worklist.isEmpty()) {
+            final int from = worklist.poll();
+            queued[from] = false;
+            for (final var to : propagateTo.get(from)) {
+                if (union(follow[to], follow[from]) && !queued[to] && !propagateTo.get(to).isEmpty()) {
+                    worklist.add(to);
+                    queued[to] = true;
+                }
+            }
+        }
+    }
+
+    private Set<TokenKind> toTokenKinds(long[] set) {
+        final var result = new HashSet<TokenKind>();
+        final var bits = BitSet.valueOf(set);
+        for (int ordinal = bits.nextSetBit(0); ordinal >= 0; ordinal = bits.nextSetBit(ordinal + 1)) {
+            result.add(terminals.get(ordinal));
+        }
+        return result;
+    }
+
+    private static void mark(boolean[] region, int id, ArrayDeque<Integer> pending) {
+        if (!region[id]) {
+            region[id] = true;
+            pending.add(id);
+        }
+    }
+
+    private static <T> Set<T> symmetricDifference(Set<T> lhs, Set<T> rhs) {
+        final var result = new HashSet<T>();
+        lhs.stream().filter(element -> !rhs.contains(element)).forEach(result::add);
+        rhs.stream().filter(element -> !lhs.contains(element)).forEach(result::add);
+        return result;
+    }
+
+    private static boolean set(long[] set, int ordinal) {
+        final var before = set[ordinal / Long.SIZE];
+        set[ordinal / Long.SIZE] |= 1L << ordinal;
+        return before != set[ordinal / Long.SIZE];
+    }
+
+    private static boolean union(long[] target, long[] source) {
+        boolean changed = false;
+        for (int i = 0; i < target.length; i++) {
+            final var merged = target[i] | source[i];
+            changed |= merged != target[i];
+            target[i] = merged;
+        }
+        return changed;
+    }
+}
@@ -5,6 +5,7 @@ import cn.edu.hitsz.compiler.utils.FilePathConfig;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * 读取语法文件 (grammar.txt), 获得产生式的原始字符串和非终结符
@@ -23,6 +24,26 @@ public class GrammarInfo {
 
     private GrammarInfo() {
         final var lines = FileUtils.readLines(FilePathConfig.GRAMMAR_PATH);
+        productionsInOrder.addAll(parse(lines, this::getOrCreateNonTerminal));
+        // 分析表中的规约动作以去掉分号的原文引用产生式
+        for (int idx = 0; idx < lines.size(); idx++) {
+            productions.put(lines.get(idx).replace(";", ""), productionsInOrder.get(idx));
+        }
+    }
+
+    /**
+     * 读取一个语法文件, 不影响 GrammarInfo 中已经读取的 grammar.txt. 用于修改文法后重新构造分析表
+     *
+     * @param path 语法文件路径
+     * @return 按行号顺序排列的产生式
+     */
+    public static List<Production> readProductions(String path) {
+        final var nonTerminals = new HashMap<String, NonTerminal>();
+        return parse(FileUtils.readLines(path), name -> nonTerminals.computeIfAbsent(name, NonTerminal::new));
+    }
+
+    private static List<Production> parse(List<String> lines, Function<String, NonTerminal> nonTerminalOf) {
+        final var result = new ArrayList<Production>();
         for (int idx = 0; idx < lines.size(); idx++) {
             final var line = lines.get(idx);
             // 形如 `A -> B ( id intConst ) C;` 的产生式
@@ -32,29 +53,29 @@ public class GrammarInfo {
             final var headString = words[0];
             final var bodyStrings = words[1].split(" ");
 
-            final var head = getOrCreateNonTerminal(headString);
+            final var head = nonTerminalOf.apply(headString);
 
             final var body = new ArrayList<Term>();
             for (final var termName : bodyStrings) {
                 if (TokenKind.isAllowed(termName)) {
                     body.add(TokenKind.fromString(termName));
                 } else {
-                    body.add(getOrCreateNonTerminal(termName));
+                    body.add(nonTerminalOf.apply(termName));
                 }
             }
 
             // idx + 1 是为了让 production 的标号与行号相同, 方便查看
-            final var production = new Production(idx + 1, head, body);
-            productionsInOrder.add(production);
-            productions.put(withoutComma, production);
+            result.add(new Production(idx + 1, head, body));
         }
+        return result;
     }
 
     // 为了防止有人看不懂, 就不用枚举定义单例了
     // 顺手写个懒加载
+    // 多个编译可能在不同线程上同时第一次访问文法, 加锁保证只读取一次
     private static GrammarInfo instance = null;
 
-    private static GrammarInfo getInstance() {
+    private static synchronized GrammarInfo getInstance() {
         if (instance == null) {
             instance = new GrammarInfo();
         }
@@ -12,6 +12,21 @@ import java.util.stream.Collectors;
  * <br>
  */
 public class LRTable {
+    /**
+     * 编译后分析表的存储方式, 见 {@link #compile()}
+     */
+    public enum Layout {
+        /**
+         * 稠密数组, 查表最快
+         */
+        DENSE,
+
+        /**
+         * 行移位压缩加默认规约与错误位图, 适合状态与符号较多的大表
+         */
+        COMPRESSED,
+    }
+
     /**
      * 根据当前状态与当前词法单元获取对应动作
      *
@@ -42,6 +57,24 @@ public class LRTable {
         return statusInIndexOrder.get(0);
     }
 
+    /**
+     * @return 编译后分析表的存储方式
+     */
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return 按 {@link #getLayout()} 编译为整数数组形式的分析表, 只在第一次调用时编译
+     */
+    public CompiledLRTable compile() {
+        if (compiled == null) {
+            compiled = CompiledLRTable.compile(this);
+        }
+
+        return compiled;
+    }
+
     public void dumpTable(String path) {
         final var text = new StringBuilder();
         // table head
@@ -76,13 +109,41 @@ public class LRTable {
         }
     }
 
+    List<Status> getStatuses() {
+        return statusInIndexOrder;
+    }
+
+    List<TokenKind> getTerminals() {
+        return terminals;
+    }
+
+    List<NonTerminal> getNonTerminals() {
+        return nonTerminals;
+    }
+
     LRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals) {
+        this(statusInIndexOrder, terminals, nonTerminals, Layout.DENSE);
+    }
+
+    LRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals, Layout layout) {
+        this(statusInIndexOrder, terminals, nonTerminals, layout, null);
+    }
+
+    /**
+     * @param compiled 已经编译好的表 (如直接由二进制文件读出); 为 null 时在第一次调用 {@link #compile()} 时编译
+     */
+    LRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals, Layout layout,
+            CompiledLRTable compiled) {
         this.statusInIndexOrder = statusInIndexOrder;
         this.terminals = terminals;
         this.nonTerminals = nonTerminals;
+        this.layout = layout;
+        this.compiled = compiled;
     }
 
     private final List<Status> statusInIndexOrder;
     private final List<TokenKind> terminals;
     private final List<NonTerminal> nonTerminals;
+    private final Layout layout;
+    private CompiledLRTable compiled;
 }
@@ -0,0 +1,335 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * 预编译的二进制 LR 分析表文件
+ * <br>
+ * 从 CSV 读取分析表需要逐行切分字符串, 并按产生式的全文查找每个规约动作. 二进制文件则把分析表存为:
+ * <pre>
+ *     int    魔数 'LRTB'
+ *     int    版本号
+ *     long   grammar.txt 与 coding_map.csv 的 CRC32 校验和
+ *     long   转换出该文件的 CSV 分析表的 CRC32 校验和
+ *     int    状态数, 终结符数, 非终结符数
+ *     int[]  各状态的编号 (按 LRTable 中的顺序, 第一个是起始状态)
+ *     str[]  各终结符的名字
+ *     str[]  各非终结符的名字
+ *     int[]  ACTION 表, 按 {@link CompiledLRTable} 的方式打包, 规约的载荷是产生式编号
+ *     int[]  GOTO 表, 没有转移时为 -1
+ * </pre>
+ * 其中 str 是 2 字节长度加 UTF-8 字节, 所有整数均为大端序. 读取时直接映射文件, 产生式按编号从 GrammarInfo 中取出.
+ * 映射出的两张表直接编译为 {@link CompiledLRTable}, 各 Status 中的映射则推迟到第一次被访问时才展开 (见 {@link LazyMap}).
+ * <br>
+ * 二进制文件只能由 {@link #convert(String, String)} 从 CSV 分析表转换得到 (如运行本类的 main), 编译时只读取而不写出它.
+ * 校验和与当前的文法文件和码点文件不符时, 说明文件中的符号与产生式编号已经过时;
+ * 与当前的 CSV 分析表不符 (或 CSV 已不存在) 时, 说明文件不是由现在的分析表转换来的. 这两种情况下文件都会被拒绝,
+ * 由调用者改为读取 CSV.
+ */
+public final class LRTableFile {
+    private static final int MAGIC = 0x4C525442;
+    private static final int VERSION = 2;
+
+    /**
+     * 把 {@link FilePathConfig#LR1_TABLE_PATH} 转换为 {@link FilePathConfig#LR1_TABLE_BINARY_PATH}
+     */
+    public static void main(String[] args) {
+        TokenKind.loadTokenKinds();
+        convert(FilePathConfig.LR1_TABLE_PATH, FilePathConfig.LR1_TABLE_BINARY_PATH);
+        System.out.println("Converted " + FilePathConfig.LR1_TABLE_PATH + " to " + FilePathConfig.LR1_TABLE_BINARY_PATH);
+    }
+
+    /**
+     * 读取 CSV 分析表并写为二进制文件, 需要在 {@link TokenKind#loadTokenKinds()} 之后调用
+     * <br>
+     * 文件中记录的是 CSV 本身的校验和, 因此只有从 CSV 读出的表才能写出, 别处构造的表 (如 {@link TableGenerator}) 不能冒用它
+     *
+     * @param csvPath CSV 格式的分析表路径
+     * @param path    二进制文件路径
+     */
+    public static void convert(String csvPath, String path) {
+        final long checksum;
+        try {
+            checksum = checksumOf(Files.readAllBytes(Paths.get(csvPath)));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + csvPath, e);
+        }
+        write(new TableLoader().load(csvPath), checksum, path);
+    }
+
+    private static void write(LRTable table, long tableChecksum, String path) {
+        final var statuses = table.getStatuses();
+        final var terminals = table.getTerminals();
+        final var nonTerminals = table.getNonTerminals();
+
+        try (final var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(path))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(grammarChecksum());
+            out.writeLong(tableChecksum);
+
+            out.writeInt(statuses.size());
+            out.writeInt(terminals.size());
+            out.writeInt(nonTerminals.size());
+
+            for (final var status : statuses) {
+                out.writeInt(status.index());
+            }
+            for (final var terminal : terminals) {
+                writeString(out, terminal.getTermName());
+            }
+            for (final var nonTerminal : nonTerminals) {
+                writeString(out, nonTerminal.getTermName());
+            }
+
+            for (final var status : statuses) {
+                for (final var terminal : terminals) {
+                    out.writeInt(CompiledLRTable.pack(status.getAction(terminal)));
+                }
+            }
+            for (final var status : statuses) {
+                for (final var nonTerminal : nonTerminals) {
+                    final var target = status.getGoto(nonTerminal);
+                    out.writeInt(target.isError() ? -1 : target.index());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
+    /**
+     * 尝试读取二进制分析表, 需要在 {@link TokenKind#loadTokenKinds()} 之后调用
+     *
+     * @param path 文件路径
+     * @return 读出的分析表; 文件不存在, 已损坏, 版本不符或已过时时为空
+     */
+    public static Optional<LRTable> tryLoad(String path) {
+        return tryLoad(path, LRTable.Layout.DENSE);
+    }
+
+    /**
+     * 尝试读取二进制分析表, 并指定编译后分析表的存储方式
+     *
+     * @param path   文件路径
+     * @param layout 编译后分析表的存储方式
+     * @return 读出的分析表; 文件不存在, 已损坏, 版本不符或已过时时为空
+     */
+    public static Optional<LRTable> tryLoad(String path, LRTable.Layout layout) {
+        final var file = Paths.get(path);
+        final var csv = Paths.get(FilePathConfig.LR1_TABLE_PATH);
+        if (!Files.isRegularFile(file) || !Files.isRegularFile(csv)) {
+            return Optional.empty();
+        }
+
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getLong() != grammarChecksum() || buffer.getLong() != checksumOf(Files.readAllBytes(csv))) {
+                return Optional.empty();
+            }
+
+            return Optional.of(read(buffer, layout));
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | CorruptedFileException e) {
+            // 截断或损坏的文件会在读取时越界, 或读出不存在的符号与编号; 其它异常说明读取的代码本身有错, 不应被掩盖
+            return Optional.empty();
+        }
+    }
+
+    private static LRTable read(ByteBuffer buffer, LRTable.Layout layout) {
+        final var stateCount = buffer.getInt();
+        final var terminalCount = buffer.getInt();
+        final var nonTerminalCount = buffer.getInt();
+        // 每个数至少占文件中的一个 int, 先检查以免按损坏的个数开辟巨大的数组
+        final var remaining = buffer.remaining() / Integer.BYTES;
+        if (stateCount <= 0 || terminalCount < 0 || nonTerminalCount < 0
+            || (long) stateCount * (1 + terminalCount + nonTerminalCount) > remaining) {
+            throw new CorruptedFileException("Illegal table size");
+        }
+
+        final var order = new int[stateCount];
+        int maxIndex = -1;
+        for (int i = 0; i < stateCount; i++) {
+            order[i] = buffer.getInt();
+            maxIndex = Math.max(maxIndex, order[i]);
+        }
+        if (maxIndex >= remaining || (long) (maxIndex + 1) * Math.max(terminalCount, nonTerminalCount) > remaining) {
+            throw new CorruptedFileException("Illegal status " + maxIndex);
+        }
+
+        final var terminals = new ArrayList<TokenKind>(terminalCount);
+        for (int i = 0; i < terminalCount; i++) {
+            final var name = readString(buffer);
+            if (!TokenKind.isAllowed(name)) {
+                throw new CorruptedFileException("Unknown terminal " + name);
+            }
+            terminals.add(TokenKind.fromString(name));
+        }
+        final var nonTerminals = new ArrayList<NonTerminal>(nonTerminalCount);
+        for (int i = 0; i < nonTerminalCount; i++) {
+            nonTerminals.add(new NonTerminal(readString(buffer)));
+        }
+
+        // 两张表按文件中状态的顺序逐行整块复制到以状态编号为行号的数组中, 不再经过 Status 的映射
+        final var ints = buffer.asIntBuffer();
+        final var actions = new int[(maxIndex + 1) * terminalCount];
+        for (final var index : order) {
+            ints.get(actions, index * terminalCount, terminalCount);
+        }
+        final var gotos = new int[(maxIndex + 1) * nonTerminalCount];
+        Arrays.fill(gotos, -1);
+        for (final var index : order) {
+            ints.get(gotos, index * nonTerminalCount, nonTerminalCount);
+        }
+
+        final var byIndex = new Status[maxIndex + 1];
+        final var statusInIndexOrder = new ArrayList<Status>(stateCount);
+        for (final var index : order) {
+            final var status = new Status(index,
+                new LazyMap<>(() -> actionMap(index, actions, terminals, byIndex)),
+                new LazyMap<>(() -> gotoMap(index, gotos, nonTerminals, byIndex)));
+            if (byIndex[index] != null) {
+                throw new CorruptedFileException("Duplicated status " + index);
+            }
+            byIndex[index] = status;
+            statusInIndexOrder.add(status);
+        }
+
+        final var productions = GrammarInfo.getProductionsInOrder();
+        validate(actions, gotos, byIndex, productions.size());
+
+        // 产生式的编号与其在文法文件中的行号相同
+        final var source = new CompiledLRTable.Source(byIndex, order[0], terminals, nonTerminals,
+            actions, gotos, production -> productions.get(production - 1));
+        final var compiled = CompiledLRTable.compile(source, layout);
+        return new LRTable(statusInIndexOrder, terminals, nonTerminals, layout, compiled);
+    }
+
+    /**
+     * 检查表中引用的状态与产生式都存在, 使损坏的文件在读取时就被拒绝, 而不是在展开 Status 的映射或分析时才出错
+     */
+    private static void validate(int[] actions, int[] gotos, Status[] byIndex, int productionCount) {
+        for (final var action : actions) {
+            final var payload = CompiledLRTable.payloadOf(action);
+            final var valid = switch (CompiledLRTable.kindOf(action)) {
+                case CompiledLRTable.SHIFT -> payload < byIndex.length && byIndex[payload] != null;
+                case CompiledLRTable.REDUCE -> payload >= 1 && payload <= productionCount;
+                default -> payload == 0;
+            };
+            if (!valid) {
+                throw new CorruptedFileException("Illegal action " + action);
+            }
+        }
+        for (final var target : gotos) {
+            if (target != -1 && (target < 0 || target >= byIndex.length || byIndex[target] == null)) {
+                throw new CorruptedFileException("Illegal goto " + target);
+            }
+        }
+    }
+
+    /**
+     * 由打包的行展开一个状态的 ACTION 映射, 在第一次通过 Status 查表时调用
+     */
+    private static Map<TokenKind, Action> actionMap(int state, int[] actions, List<TokenKind> terminals, Status[] byIndex) {
+        final var productions = GrammarInfo.getProductionsInOrder();
+        final var result = new HashMap<TokenKind, Action>();
+        for (int column = 0; column < terminals.size(); column++) {
+            final var action = unpack(actions[state * terminals.size() + column], byIndex, productions);
+            // 错误动作是 Status 查不到时的默认值, 不必存进映射中
+            if (action.getKind() != Action.ActionKind.Error) {
+                result.put(terminals.get(column), action);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 由打包的行展开一个状态的 GOTO 映射, 在第一次通过 Status 查表时调用
+     */
+    private static Map<NonTerminal, Status> gotoMap(int state, int[] gotos, List<NonTerminal> nonTerminals, Status[] byIndex) {
+        final var result = new HashMap<NonTerminal, Status>();
+        for (int column = 0; column < nonTerminals.size(); column++) {
+            final var target = gotos[state * nonTerminals.size() + column];
+            if (target >= 0) {
+                result.put(nonTerminals.get(column), byIndex[target]);
+            }
+        }
+        return result;
+    }
+
+    private static Action unpack(int packed, Status[] byIndex, List<Production> productions) {
+        final var payload = CompiledLRTable.payloadOf(packed);
+        return switch (CompiledLRTable.kindOf(packed)) {
+            case CompiledLRTable.SHIFT -> Action.shift(byIndex[payload]);
+            // 产生式的编号与其在文法文件中的行号相同
+            case CompiledLRTable.REDUCE -> Action.reduce(productions.get(payload - 1));
+            case CompiledLRTable.ACCEPT -> Action.accept();
+            default -> Action.error();
+        };
+    }
+
+    /**
+     * 以产生式编号与码点为内容的二进制文件 (如语法分析的事件日志) 可以用它判断文件是否已过时
+     *
+     * @return 文法文件与码点文件内容的校验和
+     */
+    public static long grammarChecksum() throws IOException {
+        final var crc = new CRC32();
+        crc.update(Files.readAllBytes(Paths.get(FilePathConfig.GRAMMAR_PATH)));
+        crc.update(Files.readAllBytes(Paths.get(FilePathConfig.CODING_MAP_PATH)));
+        return crc.getValue();
+    }
+
+    private static long checksumOf(byte[] content) {
+        final var crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        final var bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final var bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 文件内容自相矛盾 (如引用了不存在的状态或产生式), 只在读取时抛出, 由 tryLoad 转为拒绝该文件
+     */
+    private static final class CorruptedFileException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        CorruptedFileException(String message) {
+            super(message);
+        }
+    }
+
+    private LRTableFile() {
+    }
+}
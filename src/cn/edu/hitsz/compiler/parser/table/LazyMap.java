@@ -0,0 +1,68 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 第一次被访问时才构造内容的映射
+ * <br>
+ * 从二进制文件读出的分析表直接编译为整数数组, 语法分析只用编译后的表. Status 中以 Term 为键的映射只有在通过 Status
+ * 查表 (如 {@link LRTable#dumpTable(String)} 或观察者) 时才会用到, 因此每个 Status 的映射都推迟到第一次访问时再由打包的行展开.
+ * 可以被多个线程同时访问.
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+final class LazyMap<K, V> extends AbstractMap<K, V> {
+    /**
+     * @param builder 构造映射内容的函数, 最多被调用一次
+     */
+    LazyMap(Supplier<Map<K, V>> builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public V get(Object key) {
+        return content().get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return content().getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return content().containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return content().put(key, value);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return content().entrySet();
+    }
+
+    private Map<K, V> content() {
+        var result = content;
+        if (result == null) {
+            synchronized (this) {
+                result = content;
+                if (result == null) {
+                    result = builder.get();
+                    content = result;
+                    builder = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Supplier<Map<K, V>> builder;
+    private volatile Map<K, V> content = null;
+}
@@ -3,46 +3,173 @@ package cn.edu.hitsz.compiler.parser.table;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
+import java.io.Serial;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 /**
  * 根据语法文件构造 LR 分析表.
  * <br>
  * 此文件为非必需的框架文件, 用于提升整个编译器处理流程的统一性以及为学生提供 SLR(1) 分析表生成程序的参考. 正常情况下你不需要了解该文件.
+ * <br>
+ * 构造过程全部在文法的整数形式上进行: 文法符号, 产生式与项目都被编号为 int, 项目集只由其核 (排好序的项目编号数组) 表示,
+ * 每个状态在每个符号上的转移只在构造 LR(0) 自动机时计算一次, 之后填表与计算向前看符号都直接查这张转移表.
+ * <br>
+ * 规约动作的向前看符号有两种取法, 见 {@link Mode}.
  */
 public class TableGenerator {
+    /**
+     * 分析表的种类, 两者共用同一个 LR(0) 自动机, 只在规约动作的向前看符号上不同
+     */
+    public enum Mode {
+        /**
+         * 规约 A -> alpha 的向前看符号取 FOLLOW(A)
+         */
+        SLR,
+
+        /**
+         * 规约的向前看符号由 DeRemer-Pennello 算法在 LR(0) 自动机的非终结符转移上精确计算,
+         * 能接受更多的文法, 且不会在 FOLLOW 集中的多余符号上规约
+         */
+        LALR,
+    }
+
+    /**
+     * 按 grammar.txt 构造 LALR(1) 分析表
+     */
     public TableGenerator() {
-        this.productions = GrammarInfo.getProductionsInOrder();
-        this.terminals = new HashSet<>(TokenKind.allAllowedTokenKinds().values());
-        this.nonTerminals = new HashSet<>(GrammarInfo.getNonTerminals().values());
+        this(Mode.LALR);
+    }
 
-        if (productions.get(0).body().size() != 1) {
+    /**
+     * 按 grammar.txt 构造分析表
+     *
+     * @param mode 分析表的种类
+     */
+    public TableGenerator(Mode mode) {
+        this(GrammarInfo.getProductionsInOrder(), mode);
+    }
+
+    /**
+     * 按给定的产生式构造分析表, 需要在 {@link TokenKind#loadTokenKinds()} 之后调用
+     *
+     * @param productions 产生式, 第一条必须形如 S -> S'
+     * @param mode        分析表的种类
+     */
+    public TableGenerator(List<Production> productions, Mode mode) {
+        this.productions = List.copyOf(productions);
+        this.terminals = new ArrayList<>(TokenKind.allAllowedTokenKinds().values());
+        this.mode = mode;
+
+        if (productions.isEmpty() || productions.get(0).body().size() != 1) {
             throw new RuntimeException("The first production in grammar file must like S -> S'");
         }
+
+        // 非终结符按在文法中出现的顺序编号
+        final var nonTerminalSet = new LinkedHashSet<NonTerminal>();
+        for (final var production : productions) {
+            nonTerminalSet.add(production.head());
+            production.body().stream()
+                .filter(NonTerminal.class::isInstance).map(NonTerminal.class::cast)
+                .forEach(nonTerminalSet::add);
+        }
+        this.nonTerminals = new ArrayList<>(nonTerminalSet);
+
+        // 终结符的编号为 [0, terminalCount), 非终结符的编号紧随其后
+        this.terminalCount = terminals.size();
+        this.symbolCount = terminalCount + nonTerminals.size();
+        final var symbolIds = new HashMap<Term, Integer>();
+        for (int id = 0; id < terminalCount; id++) {
+            symbolIds.put(terminals.get(id), id);
+        }
+        for (int id = terminalCount; id < symbolCount; id++) {
+            symbolIds.put(nonTerminals.get(id - terminalCount), id);
+        }
+        this.eofId = symbolIds.get(TokenKind.eof());
+
+        // 项目编号: 产生式 p 的点在位置 dot 的项目编号为 itemBase[p] + dot
+        final var productionCount = productions.size();
+        this.heads = new int[productionCount];
+        this.bodies = new int[productionCount][];
+        this.itemBase = new int[productionCount];
+        int itemCount = 0;
+        for (int p = 0; p < productionCount; p++) {
+            final var production = productions.get(p);
+            heads[p] = symbolIds.get(production.head());
+            bodies[p] = production.body().stream().mapToInt(symbolIds::get).toArray();
+            itemBase[p] = itemCount;
+            itemCount += bodies[p].length + 1;
+        }
+
+        this.itemProduction = new int[itemCount];
+        this.afterDot = new int[itemCount];
+        for (int p = 0; p < productionCount; p++) {
+            for (int dot = 0; dot <= bodies[p].length; dot++) {
+                itemProduction[itemBase[p] + dot] = p;
+                afterDot[itemBase[p] + dot] = dot < bodies[p].length ? bodies[p][dot] : -1;
+            }
+        }
+
+        // 以各非终结符为头的产生式, 求闭包时直接按头查找
+        final var byHead = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nonTerminals.size(); i++) {
+            byHead.add(new ArrayList<>());
+        }
+        for (int p = 0; p < productionCount; p++) {
+            byHead.get(heads[p] - terminalCount).add(p);
+        }
+        this.productionsByHead = byHead.stream()
+            .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+            .toArray(int[][]::new);
     }
 
     /**
      * 主体方法
      */
     public void run() {
-        calcFirst();
-        calcFollow();
+        calcFirstFollow();
         constructDFA();
+        if (mode == Mode.LALR) {
+            calcLookaheads();
+        }
         dumpItems();
         genTable();
     }
 
     /**
-     * 将该分析表生成的 LR(0) 规范集族打印到某个文件之中, 用于调试
+     * 指定上一次构造分析表时算出的 FIRST 与 FOLLOW 集合
+     * <br>
+     * 反复修改文法并重新构造分析表时, 把上一次的集合交给新的构造器, {@link #run()} 会按本次的产生式增量地更新它,
+     * 只重新计算受修改影响的非终结符. 集合对象会被原地更新.
+     *
+     * @param sets 上一次的 FIRST 与 FOLLOW 集合; 为 null 时从头计算 (默认)
+     */
+    public void setFirstFollowSets(FirstFollowSets sets) {
+        this.sets = sets;
+    }
+
+    /**
+     * @return 本次构造所用的 FIRST 与 FOLLOW 集合, 可以交给下一次构造复用
+     */
+    public FirstFollowSets getFirstFollowSets() {
+        return sets;
+    }
+
+    /**
+     * 将该分析表生成的 LR(0) 规范集族打印到某个文件之中, 用于调试. LALR 模式下在各规约项目后附上其向前看符号
      */
     public void dumpItems() {
         final var lines = new ArrayList<String>();
-        for (final var status : allStatusInIndexOrder) {
-            lines.add("%d: ".formatted(status.index()));
-            for (final var item : including.get(status)) {
-                lines.add("    " + item);
+        for (int state = 0; state < kernels.size(); state++) {
+            lines.add("%d: ".formatted(state));
+            for (final var item : closure(kernels.get(state))) {
+                final var lookahead = mode == Mode.LALR && afterDot[item] < 0 && itemProduction[item] != 0
+                    ? "    " + symbolsOf(lookaheadOf(state, item))
+                    : "";
+                lines.add("    " + itemToString(item) + lookahead);
             }
         }
 
@@ -53,353 +180,591 @@ public class TableGenerator {
      * @return 构造出的 LR 表
      */
     public LRTable getTable() {
-        return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals));
+        return getTable(LRTable.Layout.DENSE);
     }
 
-    private final List<Production> productions;
-    private final Set<TokenKind> terminals;
-    private final Set<NonTerminal> nonTerminals;
-
-    private final Map<Term, Set<TokenKind>> first = new HashMap<>();
-    private final Map<Term, Set<TokenKind>> follow = new HashMap<>();
+    /**
+     * @param layout 编译后分析表的存储方式
+     * @return 构造出的 LR 表
+     */
+    public LRTable getTable(LRTable.Layout layout) {
+        return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals), layout);
+    }
 
-    private final Set<Term> visited = new HashSet<>();
+    private final List<Production> productions;
+    private final List<TokenKind> terminals;
+    private final List<NonTerminal> nonTerminals;
+    private final Mode mode;
+    private FirstFollowSets sets = null;
 
     /**
-     * 计算所有符号的 first 集合 <br>
-     * 终结符的 first 就是它自身, 非终结符的 first 则递归计算
+     * 计算或增量地更新 FIRST 与 FOLLOW 集合
      */
-    private void calcFirst() {
-        for (final var terminal : terminals) {
-            first.put(terminal, Set.of(terminal));
+    private void calcFirstFollow() {
+        if (sets == null) {
+            sets = new FirstFollowSets(terminals, productions);
+        } else {
+            sets.update(productions);
         }
+    }
 
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFirst(nonTerminal);
-        }
+    //==================== 文法的整数形式 ==============================//
+
+    private final int terminalCount;
+    private final int symbolCount;
+    private final int eofId;
+
+    // 产生式 -> 头部符号编号, 产生式 -> 产生式体的符号编号
+    private final int[] heads;
+    private final int[][] bodies;
+    // 非终结符 (编号 - terminalCount) -> 以其为头的产生式
+    private final int[][] productionsByHead;
+
+    // 产生式 -> 其第一个项目的编号; 项目 -> 产生式, 项目 -> 点后面的符号 (点在末尾时为 -1)
+    private final int[] itemBase;
+    private final int[] itemProduction;
+    private final int[] afterDot;
 
+    private boolean isTerminal(int symbol) {
+        return symbol < terminalCount;
     }
 
-    /**
-     * 递归计算特定非终结符的 first
-     *
-     * @param nonTerminal 非终结符
-     * @return 其 first 集合
-     */
-    private Set<TokenKind> calcFirst(Term nonTerminal) {
-        // 如果已经被计算, 则直接返回缓存的结果
-        if (first.containsKey(nonTerminal)) {
-            return first.get(nonTerminal);
-        }
+    private Term symbolOf(int symbol) {
+        return isTerminal(symbol) ? terminals.get(symbol) : nonTerminals.get(symbol - terminalCount);
+    }
 
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            if (nonTerminal == production.head()) {
-                // 在文法中寻找以该非终结符为头的产生式
-                final var firstSymbol = production.body().get(0);
-                // 记录已经在栈中的递归过的非终结符, 防止直接或间接的左递归导致程序死循环
-                if (!visited.contains(firstSymbol)) {
-                    // 随后递归查找该产生式体的第一个文法符号的 first 集合
-                    // 它的 first 集合也是该非终结符的 first 集合
-                    visited.add(firstSymbol);
-                    result.addAll(calcFirst(firstSymbol));
-                }
+    private String itemToString(int item) {
+        final var production = itemProduction[item];
+        final var dot = item - itemBase[production];
+        final var body = bodies[production];
+
+        final var builder = new StringBuilder();
+        builder.append(symbolOf(heads[production]));
+        builder.append(" -> ");
+        for (int i = 0; i < body.length; i++) {
+            if (i == dot) {
+                builder.append(" .");
             }
+            builder.append(" ").append(symbolOf(body[i]));
         }
 
-        first.put(nonTerminal, result);
-        return result;
+        if (dot == body.length) {
+            builder.append(" .");
+        }
+
+        return builder.toString();
     }
 
+    //==================== LR(0) 自动机 ==============================//
 
     /**
-     * 计算所有非终结符的 follow 集合
+     * 项目集的核, 以排好序的项目编号数组表示. 两个项目集相同当且仅当它们的核相同
+     *
+     * @param items 排好序的项目编号
+     * @param hash  items 的哈希值, 预先算好以免每次查表都遍历数组
      */
-    private void calcFollow() {
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFollow(nonTerminal);
+    private record Kernel(int[] items, int hash) {
+        static Kernel of(int[] items) {
+            return new Kernel(items, Arrays.hashCode(items));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Kernel kernel
+                && kernel.hash == hash
+                && Arrays.equals(kernel.items, items);
         }
 
-        // 对于找完所有产生式了都还没没有 follow 的非终结符
-        // 它必然是一个没有被使用的非终结符, 这意味着它的 follow 就是 EOF
-        nonTerminals.stream()
-            .map(follow::get).filter(Set::isEmpty)
-            .forEach(set -> set.add(TokenKind.eof()));
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
+    // 还没有编号的新项目集在 stateOfKernel 中的占位值
+    private static final int PENDING = -1;
+    // 并行展开时每个任务至少处理的状态数
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    private final List<int[]> kernels = new ArrayList<>();
+    private final Map<Kernel, Integer> stateOfKernel = new ConcurrentHashMap<>();
+    // 状态 -> 各符号上的转移目标 (没有转移时为 -1), 即记忆化的 GO(I, X)
+    private final List<int[]> transitions = new ArrayList<>();
+    private final List<Status> allStatusInIndexOrder = new ArrayList<>();
+    private ForkJoinPool pool = null;
+
     /**
-     * 递归计算给定非终结符的 follow 集合
+     * 指定构造 LR(0) 自动机时使用的线程池
+     * <br>
+     * 同一层 BFS 中各状态的闭包与后继互不相关, 可以在线程池中并行地求出; 状态的编号则在每层结束后按串行 BFS 的顺序分配,
+     * 因此构造出的分析表与串行构造的完全相同.
      *
-     * @param nonTerminal 给定的非终止符
-     * @return 其 follow 集合
+     * @param pool 线程池; 为 null 时串行构造 (默认)
      */
-    private Set<TokenKind> calcFollow(NonTerminal nonTerminal) {
-        // 与 first 类似, 先查找缓存
-        if (follow.containsKey(nonTerminal)) {
-            return follow.get(nonTerminal);
-        }
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
 
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            final var body = production.body();
+    /**
+     * 逐层 BFS 构造出 LR(0) 自动机的所有状态与转移
+     * <br>
+     * 每层分两步: 先 (可能并行地) 求出本层每个状态在每个符号上的后继项目集, 新出现的项目集以 PENDING 登记进 stateOfKernel 去重;
+     * 再依状态编号与符号的顺序为新项目集分配编号, 这与逐个状态展开的串行 BFS 分配的编号相同.
+     */
+    private void constructDFA() {
+        final var init = Kernel.of(new int[]{itemBase[0]});
+        stateOfKernel.put(init, 0);
+        kernels.add(init.items());
 
-            // 对该非终结符在每条产生式体中的可能出现, 我们都要将紧跟在该出现后面的项的 first 加入其 follow 集合
-            // 我们直接枚举每条产生式体的每个项
-            for (int i = 0; i < body.size() - 1; i++) {
-                // 如果发现目前的 curr 的话, 后面跟着的符号的 first 就是它的 follow
-                final var symbol = body.get(i);
-                final var next = body.get(i + 1);
+        int levelBegin = 0;
+        while (levelBegin < kernels.size()) {
+            final var levelEnd = kernels.size();
+            final var successors = new Kernel[levelEnd - levelBegin][];
 
-                if (symbol.equals(nonTerminal)) {
-                    result.addAll(first.get(next));
-                }
+            if (pool == null) {
+                expand(levelBegin, levelBegin, levelEnd, successors);
+            } else {
+                pool.invoke(new ExpandTask(levelBegin, levelBegin, levelEnd, successors));
             }
 
-            // 如果该非终结符出现在产生式的末尾, 那么该产生式的头的 follow 集合也要加入其 follow 集合中
-            final var lastInBody = body.get(body.size() - 1);
-            if (lastInBody.equals(nonTerminal)) {
-                final var head = production.head();
-                if (visited.contains(head)) {
-                    // 如果该产生式头已经在栈中了, 那么意味着这个非终结符有可能一直展开自己
-                    // 这时候 EOF 也可能是它的 Follow
-                    result.add(TokenKind.eof());
-                } else {
-                    // 否则直接递归查找
-                    visited.add(head);
-                    result.addAll(calcFollow(head));
-                }
+            for (final var row : successors) {
+                transitions.add(number(row));
             }
+            levelBegin = levelEnd;
         }
 
-        follow.put(nonTerminal, result);
-        return result;
+        for (int state = 0; state < kernels.size(); state++) {
+            allStatusInIndexOrder.add(Status.create(state));
+        }
     }
 
     /**
-     * 表示一个项目
-     * <br>
-     * 对于 A -> B . C, 其 production 为 A -> B C, dot 为 1 (其下一个项 C 的索引) <br>
-     * 对于 A -> B C ., 其 production 为 A -> B C, dot 为 2 (其产生式体的项数量) <br>
+     * 求出 [from, to) 中各状态的后继项目集, 可以被多个线程同时调用
      *
-     * @param production 产生式
-     * @param dot        目前解析到的位置
+     * @param levelBegin 本层的第一个状态
+     * @param from       起始状态 (含)
+     * @param to         结束状态 (不含)
+     * @param successors 结果, 第 state - levelBegin 行是该状态在各符号上的后继项目集
      */
-    private record Item(Production production, int dot) {
-        /**
-         * @return 点的位置是否在产生式的末尾
-         */
-        public boolean isDotAtEnd() {
-            return production.body().size() == dot;
+    private void expand(int levelBegin, int from, int to, Kernel[][] successors) {
+        for (int state = from; state < to; state++) {
+            final var row = constructGotos(kernels.get(state));
+            for (final var kernel : row) {
+                if (kernel != null) {
+                    stateOfKernel.putIfAbsent(kernel, PENDING);
+                }
+            }
+            successors[state - levelBegin] = row;
         }
+    }
 
-        /**
-         * @return 获得点后面的文法符号; 若点的位置在末尾则返回空
-         */
-        public Optional<Term> getAfterDot() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(production.body().get(dot));
-            }
+    /**
+     * 以分治的方式并行展开一层状态
+     * <br>
+     * RecursiveAction 实现了 Serializable, 但任务只在本次构造中使用, 从不序列化, 所以字段都标为 transient
+     */
+    private final class ExpandTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient int levelBegin;
+        private final transient int from;
+        private final transient int to;
+        private final transient Kernel[][] successors;
+
+        ExpandTask(int levelBegin, int from, int to, Kernel[][] successors) {
+            this.levelBegin = levelBegin;
+            this.from = from;
+            this.to = to;
+            this.successors = successors;
         }
 
-        /**
-         * @return 获得当前项目的后继项; 若点的位置在末尾则返回空
-         */
-        public Optional<Item> getNextItem() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                expand(levelBegin, from, to, successors);
             } else {
-                return Optional.of(new Item(production, dot + 1));
+                final var middle = (from + to) >>> 1;
+                invokeAll(new ExpandTask(levelBegin, from, middle, successors),
+                    new ExpandTask(levelBegin, middle, to, successors));
             }
         }
+    }
 
-        @Override
-        public String toString() {
-            final var builder = new StringBuilder();
+    /**
+     * 为一个状态的后继项目集分配编号, 只能串行地按状态编号的顺序调用
+     *
+     * @param row 该状态在各符号上的后继项目集
+     * @return 各符号上的转移目标, 没有转移时为 -1
+     */
+    private int[] number(Kernel[] row) {
+        final var gotos = new int[symbolCount];
+        Arrays.fill(gotos, -1);
+        // 先非终结符后终结符, 与状态的编号顺序相关
+        for (int i = 0; i < symbolCount; i++) {
+            final var symbol = (i + terminalCount) % symbolCount;
+            final var kernel = row[symbol];
+            if (kernel == null) {
+                continue;
+            }
 
-            builder.append(production.head());
-            builder.append(" -> ");
+            var state = stateOfKernel.get(kernel);
+            if (state == PENDING) {
+                state = kernels.size();
+                kernels.add(kernel.items());
+                stateOfKernel.put(kernel, state);
+            }
+            gotos[symbol] = state;
+        }
+        return gotos;
+    }
 
-            final var body = production.body();
-            for (int i = 0; i < body.size(); i++) {
-                if (i == dot) {
-                    builder.append(" .");
-                }
-                builder.append(" ").append(body.get(i));
+    /**
+     * 求项目集在每个符号上的后继, 相当于对所有 X 一次求出理论课中的 GO(I, X)
+     *
+     * @param kernel 项目集 I 的核
+     * @return 各符号上的后继项目集的核, 没有后继时为 null
+     */
+    private Kernel[] constructGotos(int[] kernel) {
+        // 按点后面的符号把闭包中的项目分桶, 每个桶中的后继项目就是后继项目集的核
+        final var buckets = new int[symbolCount][];
+        final var sizes = new int[symbolCount];
+        for (final var item : closure(kernel)) {
+            final var symbol = afterDot[item];
+            if (symbol < 0) {
+                continue;
             }
 
-            if (dot == body.size()) {
-                builder.append(" .");
+            if (buckets[symbol] == null) {
+                buckets[symbol] = new int[4];
+            } else if (sizes[symbol] == buckets[symbol].length) {
+                buckets[symbol] = Arrays.copyOf(buckets[symbol], sizes[symbol] * 2);
             }
+            buckets[symbol][sizes[symbol]++] = item + 1;
+        }
 
-            return builder.toString();
+        final var result = new Kernel[symbolCount];
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            if (sizes[symbol] > 0) {
+                final var next = Arrays.copyOf(buckets[symbol], sizes[symbol]);
+                Arrays.sort(next);
+                result[symbol] = Kernel.of(next);
+            }
         }
+        return result;
     }
 
-    private final Map<Set<Item>, Status> belongTo = new HashMap<>();
-    private final Map<Status, Set<Item>> including = new HashMap<>();
-    private final List<Status> allStatusInIndexOrder = new ArrayList<>();
-
     /**
-     * 构造出所有状态并维护状态与项集之间的对应关系
+     * 构造项集的闭包, 相当于理论课中的 CLOSURE(I) 函数
+     * <br>
+     * 闭包中的非核项目都形如 B -> . gamma, 所以只需要记录哪些非终结符已被展开
+     *
+     * @param kernel 项集 I 的核
+     * @return 闭包, 核项目在前
      */
-    private void constructDFA() {
-        final var argumentProduction = productions.get(0);
-        final var initItem = new Item(argumentProduction, 0);
-        final var collections = constructCanonicalLRCollection(initItem);
+    private int[] closure(int[] kernel) {
+        final var expanded = new boolean[nonTerminals.size()];
+        var result = Arrays.copyOf(kernel, Math.max(kernel.length * 2, 8));
+        int size = kernel.length;
 
-        for (int idx = 0; idx < collections.size(); idx++) {
-            final var status = Status.create(idx);
-            allStatusInIndexOrder.add(status);
+        // 采用 BFS 的方法来避免每次都检测集合的更改
+        for (int i = 0; i < size; i++) {
+            final var symbol = afterDot[result[i]];
+            if (symbol < terminalCount || expanded[symbol - terminalCount]) {
+                continue;
+            }
 
-            final var items = collections.get(idx);
-            including.put(status, items);
-            belongTo.put(items, status);
+            expanded[symbol - terminalCount] = true;
+            for (final var production : productionsByHead[symbol - terminalCount]) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = itemBase[production];
+            }
         }
+
+        return Arrays.copyOf(result, size);
     }
 
     /**
-     * @param head 头部符号
-     * @return 返回一个流, 其中的元素都是以 head 为头的产生式
+     * @param state 状态
+     * @return 该状态中点在末尾的项目 (核项目, 或空产生式的非核项目)
      */
-    private Stream<Production> getProductionsByHead(Term head) {
-        return productions.stream().filter(production -> production.head().equals(head));
+    private int[] completedItems(int state) {
+        return Arrays.stream(closure(kernels.get(state)))
+            .filter(item -> afterDot[item] < 0)
+            .toArray();
     }
 
+    //==================== LALR(1) 向前看符号 ==============================//
+
+    // 状态 -> 该状态中的规约项目, 以及与之一一对应的向前看符号集合 (以终结符编号为下标的位集)
+    private final List<int[]> reduceItems = new ArrayList<>();
+    private final List<long[][]> lookaheads = new ArrayList<>();
+
     /**
-     * 构造项集 {@code sourceItem} 的闭包, 相当于理论课中的 CLOSURE(I) 函数
-     *
-     * @param sourceItem 项集 I
-     * @return 闭包
+     * 用 DeRemer-Pennello 算法计算每个规约项目的 LALR(1) 向前看符号
+     * <br>
+     * 记非终结符转移 (p, A) 为从状态 p 经 A 的转移, 则:
+     * <ul>
+     *     <li>DR(p, A): GO(p, A) 上可以直接移入的终结符</li>
+     *     <li>(p, A) reads (r, C): r = GO(p, A), 且 C 可空</li>
+     *     <li>Read(p, A) = DR(p, A) 与所有 reads 可达的 DR 之并</li>
+     *     <li>(p, A) includes (p', B): B -> beta A gamma, gamma 可空, 且 p' 经 beta 到达 p</li>
+     *     <li>Follow(p, A) = Read(p, A) 与所有 includes 可达的 Read 之并</li>
+     *     <li>(q, A -> omega) lookback (p, A): p 经 omega 到达 q</li>
+     *     <li>LA(q, A -> omega) = 所有 lookback 到的 Follow(p, A) 之并</li>
+     * </ul>
+     * Read 与 Follow 都是关系上的传递闭包, 用 digraph 算法在线性时间内求出 (同一强连通分量中的集合相同).
      */
-    private Set<Item> constructClosure(Set<Item> sourceItem) {
-        // 采用 BFS 的方法来避免每次都检测集合的更改
-        final var result = new LinkedHashSet<>(sourceItem);
-        // 已经找到, 但是还未完全探索其能展开的项的项
-        // 类似于 BFS 的队列或者是 mark-and-sweep GC 算法里的灰色列表
-        final var unexpanded = new ArrayDeque<>(sourceItem);
-
-        while (!unexpanded.isEmpty()) {
-            final var top = unexpanded.pollFirst();
-            // 获得当前项中点后面的符号
-            top.getAfterDot().ifPresent(afterDot ->
-                // 随后查找以该符号作为头部的产生式
-                getProductionsByHead(afterDot)
-                    // 构造点在对应产生式开头的新项
-                    .map(production -> new Item(production, 0))
-                    // 对于不在 result 中的新项
-                    .filter(item -> !result.contains(item))
-                    // 加入队列并加入结果中
-                    .peek(unexpanded::add)
-                    .forEach(result::add));
+    private void calcLookaheads() {
+        final var nullable = new boolean[symbolCount];
+        for (int symbol = terminalCount; symbol < symbolCount; symbol++) {
+            nullable[symbol] = sets.isNullable(nonTerminals.get(symbol - terminalCount));
+        }
+        final var words = (terminalCount + Long.SIZE - 1) / Long.SIZE;
+        final var stateCount = kernels.size();
+
+        // 为所有非终结符转移编号
+        final var transitionIds = new int[stateCount][nonTerminals.size()];
+        final var fromStates = new ArrayList<Integer>();
+        final var symbols = new ArrayList<Integer>();
+        for (int state = 0; state < stateCount; state++) {
+            Arrays.fill(transitionIds[state], -1);
+            final var gotos = transitions.get(state);
+            for (int symbol = terminalCount; symbol < symbolCount; symbol++) {
+                if (gotos[symbol] >= 0) {
+                    transitionIds[state][symbol - terminalCount] = fromStates.size();
+                    fromStates.add(state);
+                    symbols.add(symbol);
+                }
+            }
+        }
+        final var transitionCount = fromStates.size();
+
+        // DR 与 reads
+        final var follow = new long[transitionCount][words];
+        final var reads = new int[transitionCount][];
+        for (int x = 0; x < transitionCount; x++) {
+            final var target = transitions.get(fromStates.get(x))[symbols.get(x)];
+            final var gotos = transitions.get(target);
+            for (int terminal = 0; terminal < terminalCount; terminal++) {
+                if (gotos[terminal] >= 0) {
+                    follow[x][terminal / Long.SIZE] |= 1L << terminal;
+                }
+            }
+            // 移入起始产生式的末尾后遇到 EOF 就 accept 了, 相当于在 EOF 上有一个移入
+            if (Arrays.binarySearch(kernels.get(target), itemBase[0] + bodies[0].length) >= 0) {
+                follow[x][eofId / Long.SIZE] |= 1L << eofId;
+            }
+
+            reads[x] = transitionIdsOn(transitionIds[target], nullable);
         }
+        digraph(follow, reads);
 
-        return result;
+        // includes 与 lookback
+        final var includes = new ArrayList<List<Integer>>();
+        for (int x = 0; x < transitionCount; x++) {
+            includes.add(new ArrayList<>());
+        }
+        final var lookbacks = new HashMap<Long, List<Integer>>();
+        for (int x = 0; x < transitionCount; x++) {
+            for (final var production : productionsByHead[symbols.get(x) - terminalCount]) {
+                final var body = bodies[production];
+                int state = fromStates.get(x);
+                for (int i = 0; i < body.length; i++) {
+                    final var symbol = body[i];
+                    if (!isTerminal(symbol) && isNullable(body, i + 1, nullable)) {
+                        includes.get(transitionIds[state][symbol - terminalCount]).add(x);
+                    }
+                    state = transitions.get(state)[symbol];
+                }
+
+                final var completed = itemBase[production] + body.length;
+                lookbacks.computeIfAbsent(pair(state, completed), key -> new ArrayList<>()).add(x);
+            }
+        }
+        digraph(follow, includes.stream()
+            .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+            .toArray(int[][]::new));
+
+        // LA
+        for (int state = 0; state < stateCount; state++) {
+            final var items = completedItems(state);
+            final var sets = new long[items.length][words];
+            for (int i = 0; i < items.length; i++) {
+                for (final var x : lookbacks.getOrDefault(pair(state, items[i]), List.of())) {
+                    union(sets[i], follow[x]);
+                }
+            }
+            reduceItems.add(items);
+            lookaheads.add(sets);
+        }
+    }
+
+    private static boolean isNullable(int[] body, int from, boolean[] nullable) {
+        for (int i = from; i < body.length; i++) {
+            if (!nullable[body[i]]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * 相当于理论课中的 GO(I, X) 函数 (转移函数)
-     *
-     * @param items 当前项集 I
-     * @param term  文法符号 X
-     * @return I 关于 X 的后继项目集
+     * @return 某状态上所有可空非终结符的转移编号
      */
-    private Set<Item> constructGoto(Set<Item> items, Term term) {
-        final var kernelForGoto = items.stream()
-            // 先筛选出 I 中所有点后面是 term 的项
-            .filter(item -> item.getAfterDot().map(term::equals).orElse(false))
-            // 然后分别求出每一个项的后继项
-            // 这个项集就是后继项目集的核
-            .map(Item::getNextItem).flatMap(Optional::stream)
-            .collect(Collectors.toSet());
-
-        // 随后从后继项目集的核中构造闭包即可得到后继项目集
-        return constructClosure(kernelForGoto);
+    private int[] transitionIdsOn(int[] transitionIdsOfState, boolean[] nullable) {
+        return IntStream.range(0, transitionIdsOfState.length)
+            .filter(i -> transitionIdsOfState[i] >= 0 && nullable[i + terminalCount])
+            .map(i -> transitionIdsOfState[i])
+            .toArray();
     }
 
     /**
-     * 构造 LR(0) 规范项目集族
+     * DeRemer-Pennello 的 digraph 算法: 令每个结点的集合并上其沿关系可达的所有结点的集合
      *
-     * @param initItem 起始项目 S -> . S'
-     * @return 规范项目集族
+     * @param sets  各结点的初始集合, 原地更新为结果
+     * @param edges 关系, edges[x] 为 x 直接关联的结点
      */
-    private List<Set<Item>> constructCanonicalLRCollection(Item initItem) {
-        // 先收集所有的文法符号备用
-        final var terms = new LinkedHashSet<Term>();
-        terms.addAll(nonTerminals);
-        terms.addAll(terminals);
-
-        // 构造初始项目集族
-        final var initClosure = constructClosure(Set.of(initItem));
-
-        // 同样以 BFS 形式搜索
-        final var result = new LinkedHashSet<>(Set.of(initClosure));
-        final var unexpanded = new ArrayDeque<>(Set.of(initClosure));
-
-        while (!unexpanded.isEmpty()) {
-            final var items = unexpanded.pollFirst();
-
-            // 对于每个未被探索的集族
-            for (final var term : terms) {
-                // 尝试对每一个文法符号都求一个后继项目集
-                final var to = constructGoto(items, term);
-                // 如果还没被加入到 result 中
-                if (!to.isEmpty() && !result.contains(to)) {
-                    // 就加入 result 和待探索列表中
-                    result.add(to);
-                    unexpanded.addLast(to);
+    private static void digraph(long[][] sets, int[][] edges) {
+        final var nodeCount = sets.length;
+        final var depth = new int[nodeCount];
+        final var stack = new int[nodeCount];
+        final var entry = new int[nodeCount];
+        final var callStack = new int[nodeCount];
+        final var nextEdge = new int[nodeCount];
+        int top = 0;
+
+        for (int root = 0; root < nodeCount; root++) {
+            if (depth[root] != 0) {
+                continue;
+            }
+
+            // 用显式的调用栈代替递归, 以免长链上栈溢出
+            int calls = 0;
+            stack[top++] = root;
+            depth[root] = entry[root] = top;
+            nextEdge[root] = 0;
+            callStack[calls++] = root;
+
+            while (calls > 0) {
+                final var x = callStack[calls - 1];
+                if (nextEdge[x] < edges[x].length) {
+                    final var y = edges[x][nextEdge[x]++];
+                    if (depth[y] == 0) {
+                        stack[top++] = y;
+                        depth[y] = entry[y] = top;
+                        nextEdge[y] = 0;
+                        callStack[calls++] = y;
+                    } else {
+                        depth[x] = Math.min(depth[x], depth[y]);
+                        union(sets[x], sets[y]);
+                    }
+                    continue;
+                }
+
+                // x 的所有后继都已处理完, 若 x 是强连通分量的根则整个分量出栈, 共享 x 的集合
+                calls--;
+                if (depth[x] == entry[x]) {
+                    int node;
+                    do {
+                        node = stack[--top];
+                        depth[node] = Integer.MAX_VALUE;
+                        if (node != x) {
+                            sets[node] = sets[x].clone();
+                        }
+                    } while (node != x);
+                }
+
+                if (calls > 0) {
+                    final var parent = callStack[calls - 1];
+                    depth[parent] = Math.min(depth[parent], depth[x]);
+                    union(sets[parent], sets[x]);
                 }
             }
         }
+    }
+
+    private static void union(long[] target, long[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] |= source[i];
+        }
+    }
+
+    private static long pair(int state, int item) {
+        return (long) state << 32 | item;
+    }
+
+    /**
+     * @param state 状态
+     * @param item  该状态中的规约项目
+     * @return 该项目的 LALR(1) 向前看符号
+     */
+    private long[] lookaheadOf(int state, int item) {
+        final var items = reduceItems.get(state);
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] == item) {
+                return lookaheads.get(state)[i];
+            }
+        }
+        throw new RuntimeException("Item %s is not a reduce item of status %d".formatted(itemToString(item), state));
+    }
 
-        return new ArrayList<>(result);
+    private List<TokenKind> symbolsOf(long[] set) {
+        final var result = new ArrayList<TokenKind>();
+        for (int terminal = 0; terminal < terminalCount; terminal++) {
+            if ((set[terminal / Long.SIZE] & 1L << terminal) != 0) {
+                result.add(terminals.get(terminal));
+            }
+        }
+        return result;
     }
 
+    //==================== 填表 ==============================//
+
     /**
      * 构造 LR 分析表 (填充各个 status 中的 action 与 goto)
      */
     private void genTable() {
-        // 依索引顺序对每个状态的每个项目
-        for (final var status : allStatusInIndexOrder) {
-            for (final var item : including.get(status)) {
-                final var afterDotOpt = item.getAfterDot();
-
-                // 根据项目的点的位置和点后面跟着的文法符号进行分类
-                if (afterDotOpt.isEmpty()) {
-                    final var argumentProduction = productions.get(0);
-                    if (item.production().equals(argumentProduction)) {
-                        // S -> S' .
-                        // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
-                        status.setAction(TokenKind.eof(), Action.accept());
-                    } else {
-                        // A -> alpha .
-                        // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于 follow(A) 内的文法符号都应该规约 A
-                        final var production = item.production();
-                        final var head = production.head();
-                        for (final var a : follow.get(head)) {
-                            status.setAction(a, Action.reduce(production));
-                        }
-                    }
+        // 依索引顺序对每个状态
+        for (int state = 0; state < kernels.size(); state++) {
+            final var status = allStatusInIndexOrder.get(state);
+
+            // 移入与转移直接取自自动机的转移
+            // A -> alpha . a beta 在 a 上移入, A -> alpha . B beta 在规约出 B 后转移到 GO(I, B)
+            final var gotos = transitions.get(state);
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                if (gotos[symbol] < 0) {
+                    continue;
+                }
 
+                final var next = allStatusInIndexOrder.get(gotos[symbol]);
+                if (isTerminal(symbol)) {
+                    status.setAction(terminals.get(symbol), Action.shift(next));
                 } else {
-                    final var symbol = afterDotOpt.get();
-                    final var next = belongTo.get(constructGoto(including.get(status), symbol));
-
-                    if (symbol instanceof TokenKind tokenKind) {
-                        // A -> alpha . a beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个终结符的情况, 我们就移入该终结符
-                        status.setAction(tokenKind, Action.shift(next));
-                    } else if (symbol instanceof NonTerminal nonTerminal) {
-                        // A -> alpha . B beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个非终结符的情况,
-                        // 我们就转移到 B 解析之后的状态中去 (即 GO(I, B) 对应的状态)
-                        status.setGoto(nonTerminal, next);
-                    } else {
-                        throw new RuntimeException("Unknown type of Term");
-                    }
+                    status.setGoto(nonTerminals.get(symbol - terminalCount), next);
+                }
+            }
+
+            for (final var item : completedItems(state)) {
+                final var production = itemProduction[item];
+                if (production == 0) {
+                    // S -> S' .
+                    // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
+                    status.setAction(TokenKind.eof(), Action.accept());
+                    continue;
+                }
+
+                // A -> alpha .
+                // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于向前看符号中的文法符号都应该规约 A
+                final var reduce = Action.reduce(productions.get(production));
+                final Collection<TokenKind> lookahead = switch (mode) {
+                    case SLR -> sets.follow(productions.get(production).head());
+                    case LALR -> symbolsOf(lookaheadOf(state, item));
+                };
+                for (final var a : lookahead) {
+                    status.setAction(a, reduce);
                 }
             }
         }
@@ -19,6 +19,17 @@ public class TableLoader {
      * @return LRTable
      */
     public LRTable load(String path) {
+        return load(path, LRTable.Layout.DENSE);
+    }
+
+    /**
+     * 读取分析表, 并指定编译后分析表的存储方式
+     *
+     * @param path   CSV 格式的分析表路径
+     * @param layout 编译后分析表的存储方式
+     * @return LRTable
+     */
+    public LRTable load(String path, LRTable.Layout layout) {
         final var csv = FileUtils.readCSV(path);
         // 表头是 状态, ACTION, ..., GOTO, ... 那一行
         final var tableHeader = csv.get(0);
@@ -61,8 +72,11 @@ public class TableLoader {
                 final var relativeIndex = idx - actionColumnBegin;
                 final var terminal = terminals.get(relativeIndex);
 
-                final var action = parseAction(row.get(idx));
-                status.setAction(terminal, action);
+                // 空单元格就是错误动作, 也是 Status 查不到时的默认值, 不必存进 Status 中
+                final var text = row.get(idx);
+                if (!text.isEmpty()) {
+                    status.setAction(terminal, parseAction(text));
+                }
             }
 
             // 处理 GOTO 表
@@ -70,13 +84,15 @@ public class TableLoader {
                 final var relativeIndex = idx - gotoColumnBegin;
                 final var nonTerminal = nonTerminals.get(relativeIndex);
 
-                final var goto_ = parseGoto(row.get(idx));
-                status.setGoto(nonTerminal, goto_);
+                final var text = row.get(idx);
+                if (!text.isEmpty()) {
+                    status.setGoto(nonTerminal, parseGoto(text));
+                }
             }
         }
 
         // 返回构造出的 LR 表
-        return new LRTable(statusInIndexOrder, terminals, nonTerminals);
+        return new LRTable(statusInIndexOrder, terminals, nonTerminals, layout);
     }
 
     private final List<Status> statusInIndexOrder = new ArrayList<>();
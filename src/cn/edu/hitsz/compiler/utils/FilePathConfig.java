@@ -62,6 +62,16 @@ public final class FilePathConfig {
      */
     public static final String ASSEMBLY_LANGUAGE_PATH = "data/out/assembly_language.asm";
 
+    /**
+     * 预编译的二进制 LR 分析表, 由 LR1_table.csv 第一次读取时写出
+     */
+    public static final String LR1_TABLE_BINARY_PATH = "data/out/LR1_table.bin";
+
+    /**
+     * 语法分析的事件日志, 可以不经词法分析与语法分析重放给各观察者
+     */
+    public static final String PARSE_LOG_PATH = "data/out/parse_log.bin";
+
     private FilePathConfig() {
     }
 }